@@ -27,7 +27,7 @@ import de.thomas_oster.liblasercut.dithering.*;
  * BlackWhiteRaster is a 1 bit raster with 1 considered black and 0 considered white.
  * 
  */
-public class BlackWhiteRaster extends TimeIntensiveOperation implements GreyscaleRaster, RasterElement.Provider
+public class BlackWhiteRaster extends TimeIntensiveOperation implements GreyscaleRaster, RasterElement.Provider, RasterElement.LineProvider
 {
 
   protected final RasterElement raster;
@@ -40,7 +40,12 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
     ORDERED,
     GRID,
     HALFTONE,
-    BRIGHTENED_HALFTONE
+    BRIGHTENED_HALFTONE,
+    JARVIS_JUDICE_NINKE,
+    STUCKI,
+    ATKINSON,
+    SIERRA,
+    BLUE_NOISE
   }
 
   public static DitheringAlgorithm getDitheringAlgorithm(DitherAlgorithm alg)
@@ -61,12 +66,31 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
         return new Halftone();
       case BRIGHTENED_HALFTONE:
         return new BrightenedHalftone();
+      case JARVIS_JUDICE_NINKE:
+        return new JarvisJudiceNinke();
+      case STUCKI:
+        return new Stucki();
+      case ATKINSON:
+        return new Atkinson();
+      case SIERRA:
+        return new Sierra();
+      case BLUE_NOISE:
+        return new BlueNoise();
       default:
         throw new IllegalArgumentException("Desired Dithering Algorithm (" + alg + ") does not exist");
     }
   }
 
   public BlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm alg, ProgressListener listener) throws InterruptedException
+  {
+    this(src, alg, listener, null);
+  }
+
+  /**
+   * @param cache if not null, a result for the same image and dithering
+   * settings is taken from the cache instead of dithering again
+   */
+  public BlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm alg, ProgressListener listener, DitheringCache cache) throws InterruptedException
   {
     this(src.getWidth(), src.getHeight());
     if (listener != null)
@@ -78,7 +102,14 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
     {
       alg.addProgressListener(listener);
     }
-    alg.ditherDirect(src, this);
+    if (cache != null)
+    {
+      cache.ditherDirect(src, alg, this);
+    }
+    else
+    {
+      alg.ditherDirect(src, this);
+    }
   }
 
   public BlackWhiteRaster(GreyscaleRaster src, DitherAlgorithm dither_algorithm, ProgressListener listener) throws InterruptedException
@@ -136,11 +167,24 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
     return raster.setPixel(x, y, v);
   }
 
+  @Override
   public byte[] getRasterLine(int y, byte[] bytes)
   {
     return raster.getRasterLine(y, bytes);
   }
 
+  /**
+   * Overwrite a complete line.
+   * Every byte represents 8 pixels, the most significant bit is the leftmost
+   * pixel, 1 is black and 0 is white.
+   * @param y line
+   * @param bytes packed line data as returned by getRasterLine()
+   */
+  public void setRasterLine(int y, byte[] bytes)
+  {
+    raster.setRasterLine(y, bytes);
+  }
+
 
   @Override
   public int getWidth()
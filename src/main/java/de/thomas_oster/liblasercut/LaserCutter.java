@@ -24,6 +24,7 @@ package de.thomas_oster.liblasercut;
 
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.vectoroptimizers.TravelCostModel;
 import java.io.OutputStream;
 
 import java.util.LinkedList;
@@ -152,6 +153,16 @@ public abstract class LaserCutter implements Cloneable, Customizable {
       return 1;
     }
 
+    /**
+     * Cost of moving between two paths, used by the vector optimizers to
+     * order the paths. Override this if the travel time of the cutter
+     * can be estimated better than by the distance.
+     * @see de.thomas_oster.liblasercut.vectoroptimizers.OptimizerPipeline#preset(de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.OrderStrategy, LaserCutter)
+     */
+    public TravelCostModel getTravelCostModel() {
+      return TravelCostModel.EUCLIDEAN;
+    }
+
     /**
      * Override this method, return true and override the
      * estimateJobDuration-method to allow Programs to use
@@ -318,12 +329,25 @@ public abstract class LaserCutter implements Cloneable, Customizable {
      */
     protected VectorPart convertRasterizableToVectorPart(RasterizableJobPart rp, LaserJob job, boolean bidirectional, boolean useMoveToForWhitePixels, boolean useMoveToForPadding)
     {
-      double resolution = rp.getDPI();
       // NOTE: The resolution of rp is also the resolution of the returned VectorPart.
-      VectorPart result = new VectorPart(rp.getLaserProperty(), resolution);
+      VectorPart result = new VectorPart(rp.getLaserProperty(), rp.getDPI());
+      convertRasterLinesToVectorPart(rp, job, bidirectional, useMoveToForWhitePixels, useMoveToForPadding, 0, rp.getRasterHeight(), result);
+      return result;
+    }
+
+    /**
+     * Converts the lines fromLine (inclusive) to toLine (exclusive) of a
+     * raster image like convertRasterizableToVectorPart and appends them to
+     * result. Converting all lines in consecutive ranges gives the same
+     * commands as converting them at once, so drivers can send the first
+     * lines while the rest is not converted yet.
+     */
+    protected void convertRasterLinesToVectorPart(RasterizableJobPart rp, LaserJob job, boolean bidirectional, boolean useMoveToForWhitePixels, boolean useMoveToForPadding, int fromLine, int toLine, VectorPart result)
+    {
+      double resolution = rp.getDPI();
       int leftLimitPx = (int) Util.mm2px(job.getTransformedOriginX(), resolution);
       int rightLimitPx = (int) Util.mm2px(job.getTransformedOriginX() + getBedWidth(), resolution);
-      for (int y = 0; y < rp.getRasterHeight(); y++)
+      for (int y = fromLine; y < toLine; y++)
       {
         if (rp.lineIsBlank(y)){
           continue;
@@ -370,7 +394,6 @@ public abstract class LaserCutter implements Cloneable, Customizable {
 
         if (bidirectional) rp.toggleRasteringCutDirection();
       }
-      return result;
     }
     
     /**
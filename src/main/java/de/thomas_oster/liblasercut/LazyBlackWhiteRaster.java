@@ -0,0 +1,170 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import de.thomas_oster.liblasercut.dithering.DitheringAlgorithm;
+import java.util.Arrays;
+
+/**
+ * A 1 bit raster like BlackWhiteRaster, which is only dithered when its
+ * rows are read.
+ *
+ * Only a small window of recent rows and the state of the dithering
+ * algorithm (e.g. the error rows of error diffusion) are kept in memory.
+ * Drivers can start encoding the first rows right away instead of waiting
+ * for the whole image to be dithered.
+ *
+ * Reading rows from top to bottom is cheapest. The first time a row above
+ * the window is read (e.g. by drivers engraving bottom up), all rows are
+ * dithered into memory once, like BlackWhiteRaster does up front.
+ *
+ * It is a GreyscaleRaster so that it can be the image of a RasterPart.
+ * RasterPart and the drivers only read their images, so setGreyScale() is
+ * rejected; dithering it again (e.g. ditherDirect()) makes no sense anyway.
+ * This class is not thread-safe.
+ */
+public class LazyBlackWhiteRaster implements GreyscaleRaster, RasterElement.LineProvider
+{
+
+  /**
+   * default number of rows kept in memory
+   */
+  public static final int DEFAULT_WINDOW = 16;
+
+  private final int width;
+  private final int height;
+  private final int stride;
+  private final DitheringAlgorithm.RowStream rows;
+  private final byte[][] window;
+  /**
+   * first row which has not been dithered yet
+   */
+  private int nextRow = 0;
+  /**
+   * all rows, after the first read above the window
+   */
+  private byte[][] allRows = null;
+
+  public LazyBlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm alg) throws InterruptedException
+  {
+    this(src, alg, DEFAULT_WINDOW);
+  }
+
+  /**
+   * @param src image, must not be changed while this raster is used
+   * @param alg dithering algorithm, later changes of its properties have no effect
+   * @param windowRows number of dithered rows kept in memory
+   */
+  public LazyBlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm alg, int windowRows) throws InterruptedException
+  {
+    this.width = src.getWidth();
+    this.height = src.getHeight();
+    this.stride = (width + 7) / 8;
+    this.rows = alg.clone().openRowStream(src);
+    this.window = new byte[Math.max(1, windowRows)][stride];
+  }
+
+  /**
+   * packed data of row y, dithering it first if necessary
+   */
+  private byte[] row(int y)
+  {
+    if (y < 0 || y >= height)
+    {
+      throw new IndexOutOfBoundsException("Row " + y + " is outside of the raster");
+    }
+    if (allRows != null)
+    {
+      return allRows[y];
+    }
+    if (y < nextRow - window.length)
+    {
+      // row was already dropped from the window, don't restart on every miss
+      ditherAllRows();
+      return allRows[y];
+    }
+    while (nextRow <= y)
+    {
+      rows.nextRow(window[nextRow % window.length]);
+      nextRow++;
+    }
+    return window[y % window.length];
+  }
+
+  private void ditherAllRows()
+  {
+    allRows = new byte[height][stride];
+    rows.reset();
+    for (int y = 0; y < height; y++)
+    {
+      rows.nextRow(allRows[y]);
+    }
+  }
+
+  @Override
+  public byte[] getRasterLine(int y, byte[] bytes)
+  {
+    byte[] line = row(y);
+    if ((bytes == null) || (bytes.length < stride)) {
+      return Arrays.copyOf(line, stride);
+    }
+    System.arraycopy(line, 0, bytes, 0, stride);
+    return bytes;
+  }
+
+  /**
+   * same as BlackWhiteRaster.getByte()
+   */
+  public byte getByte(int x, int line)
+  {
+    return row(line)[x];
+  }
+
+  public boolean isBlack(int x, int y)
+  {
+    return (row(y)[x >> 3] & (0x80 >>> (x & 7))) != 0;
+  }
+
+  @Override
+  public int getGreyScale(int x, int y)
+  {
+    return isBlack(x, y) ? 0 : 255;
+  }
+
+  /**
+   * Not supported, the raster is read-only.
+   */
+  @Override
+  public void setGreyScale(int x, int y, int grey)
+  {
+    throw new UnsupportedOperationException("LazyBlackWhiteRaster is read-only");
+  }
+
+  @Override
+  public int getWidth()
+  {
+    return width;
+  }
+
+  @Override
+  public int getHeight()
+  {
+    return height;
+  }
+}
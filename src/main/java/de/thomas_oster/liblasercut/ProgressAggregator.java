@@ -0,0 +1,117 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combines the progress of several stages into one percentage.
+ *
+ * Each stage has a fixed amount of work. Stages may be worked on by several
+ * threads at once; advancing a stage only increments an atomic counter, so
+ * it is cheap enough to be called for every row or command. The owner of the
+ * operation reads getProgress() from time to time and reports it, e.g. with
+ * TimeIntensiveOperation.setProgress().
+ */
+public class ProgressAggregator
+{
+
+  private final int progressStart;
+  private final int progressEnd;
+  private final List<Stage> stages = new CopyOnWriteArrayList<>();
+  private final AtomicLong totalWork = new AtomicLong();
+
+  /**
+   * @param progressStart progress when no work is done
+   * @param progressEnd progress when all stages are finished
+   */
+  public ProgressAggregator(int progressStart, int progressEnd)
+  {
+    this.progressStart = progressStart;
+    this.progressEnd = progressEnd;
+  }
+
+  public ProgressAggregator()
+  {
+    this(0, 100);
+  }
+
+  /**
+   * Adds a stage. Its share of the total progress is proportional to work.
+   */
+  public Stage addStage(long work)
+  {
+    Stage s = new Stage(Math.max(0, work));
+    stages.add(s);
+    totalWork.addAndGet(s.work);
+    return s;
+  }
+
+  /**
+   * @return the combined progress between progressStart and progressEnd
+   */
+  public int getProgress()
+  {
+    long total = totalWork.get();
+    if (total == 0)
+    {
+      return progressStart;
+    }
+    long done = 0;
+    for (Stage s : stages)
+    {
+      done += Math.min(s.work, s.done.get());
+    }
+    return progressStart + (int) ((progressEnd - progressStart) * (double) done / total);
+  }
+
+  public static final class Stage
+  {
+
+    private final long work;
+    private final AtomicLong done = new AtomicLong();
+
+    private Stage(long work)
+    {
+      this.work = work;
+    }
+
+    public void advance()
+    {
+      done.incrementAndGet();
+    }
+
+    public void advance(long amount)
+    {
+      done.addAndGet(amount);
+    }
+
+    public void finish()
+    {
+      done.set(work);
+    }
+
+    public long getWork()
+    {
+      return work;
+    }
+  }
+}
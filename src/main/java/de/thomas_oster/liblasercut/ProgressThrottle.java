@@ -0,0 +1,89 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+/**
+ * Decides which progress updates are worth reporting.
+ *
+ * An update is reported if it differs from the last reported value by at
+ * least a given number of percent and the last report is at least a given
+ * time ago. 0, 100 and going backwards are always reported, so listeners
+ * never miss the start or the end of an operation.
+ *
+ * @see TimeIntensiveOperation#setProgressThrottle(ProgressThrottle)
+ * @see ThrottledProgressListener
+ */
+public class ProgressThrottle
+{
+
+  private final int minPercentStep;
+  private final long minIntervalNanos;
+  private int lastProgress = -1;
+  private long lastTime = 0;
+
+  /**
+   * @param minPercentStep minimum difference to the last reported progress
+   * @param minIntervalMillis minimum time between two reports
+   */
+  public ProgressThrottle(int minPercentStep, long minIntervalMillis)
+  {
+    this.minPercentStep = Math.max(1, minPercentStep);
+    this.minIntervalNanos = minIntervalMillis * 1000000L;
+  }
+
+  public int getMinPercentStep()
+  {
+    return minPercentStep;
+  }
+
+  public long getMinIntervalMillis()
+  {
+    return minIntervalNanos / 1000000L;
+  }
+
+  /**
+   * @return true if the given progress should be reported. In that case it
+   * is remembered as the last reported progress.
+   */
+  public synchronized boolean accept(int progress)
+  {
+    if (progress == lastProgress)
+    {
+      return false;
+    }
+    boolean always = progress <= 0 || progress >= 100 || progress < lastProgress || lastProgress < 0;
+    long now = minIntervalNanos > 0 ? System.nanoTime() : 0;
+    if (!always && (progress - lastProgress < minPercentStep || now - lastTime < minIntervalNanos))
+    {
+      return false;
+    }
+    lastProgress = progress;
+    lastTime = now;
+    return true;
+  }
+
+  /**
+   * Forget the last reported progress, e.g. when an operation is started again
+   */
+  public synchronized void reset()
+  {
+    lastProgress = -1;
+    lastTime = 0;
+  }
+}
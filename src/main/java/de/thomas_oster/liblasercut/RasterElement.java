@@ -97,6 +97,23 @@ public class RasterElement
     return bytes;
  }
  
+ /**
+  * Overwrite one line of the raster with the given bytes.
+  * The layout is the same as returned by getRasterLine().
+  * @param y line
+  * @param bytes raw line data, at least getStride() bytes
+  */
+ public void setRasterLine(int y, byte[] bytes) {
+    System.arraycopy(bytes, 0, imageData, y * stride, stride);
+ }
+
+ /**
+  * Number of bytes per line
+  */
+ public int getStride() {
+    return stride;
+ }
+ 
  public byte getByte(int x, int line) {
     return imageData[(line * stride) + x];
   }
@@ -161,5 +178,17 @@ public class RasterElement
   public interface Provider {
     RasterElement getRaster();
   }
+
+  /**
+   * Implemented by images which can return their lines in the format of
+   * getRasterLine(), but do not necessarily keep a complete RasterElement
+   * in memory (e.g. LazyBlackWhiteRaster).
+   */
+  public interface LineProvider {
+    /**
+     * @see RasterElement#getRasterLine(int, byte[])
+     */
+    byte[] getRasterLine(int y, byte[] bytes);
+  }
   
 }
\ No newline at end of file
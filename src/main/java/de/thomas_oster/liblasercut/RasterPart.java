@@ -57,8 +57,12 @@ public class RasterPart extends RasterizableJobPart
   @Override
   public void getRasterLine(int line, List<Byte> result)
   {
-    RasterElement raster = ((RasterElement.Provider)image).getRaster();
-    byte[] byte_array = raster.getRasterLine(line, null);
+    byte[] byte_array;
+    if (image instanceof RasterElement.LineProvider) {
+      byte_array = ((RasterElement.LineProvider)image).getRasterLine(line, null);
+    } else {
+      byte_array = ((RasterElement.Provider)image).getRaster().getRasterLine(line, null);
+    }
     if (result instanceof ByteArrayList) {
       ((ByteArrayList)result).clear(byte_array.length);
     } else {
@@ -71,6 +75,10 @@ public class RasterPart extends RasterizableJobPart
 
   public boolean isBlack(int x, int y)
   {
+    if (!(image instanceof RasterElement.Provider))
+    {
+      return image.getGreyScale(x, y) <= 127;
+    }
     RasterElement raster = ((RasterElement.Provider)image).getRaster();
     if (raster.getBitDepth() == 1)
     {
@@ -0,0 +1,70 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import de.thomas_oster.liblasercut.platform.Util;
+
+/**
+ * ProgressListener which forwards only some of the updates to another
+ * listener, as decided by a ProgressThrottle. Task names are only forwarded
+ * if they change.
+ *
+ * Useful for loops which report progress for every command.
+ */
+public class ThrottledProgressListener implements ProgressListener
+{
+
+  private final ProgressListener target;
+  private final ProgressThrottle throttle;
+  private String lastTask = null;
+
+  public ThrottledProgressListener(ProgressListener target, int minPercentStep, long minIntervalMillis)
+  {
+    this(target, new ProgressThrottle(minPercentStep, minIntervalMillis));
+  }
+
+  public ThrottledProgressListener(ProgressListener target, ProgressThrottle throttle)
+  {
+    this.target = target;
+    this.throttle = throttle;
+  }
+
+  @Override
+  public void progressChanged(Object source, int percent)
+  {
+    if (throttle.accept(percent))
+    {
+      target.progressChanged(source, percent);
+    }
+  }
+
+  @Override
+  public void taskChanged(Object source, String taskName)
+  {
+    synchronized (this)
+    {
+      if (!Util.differ(lastTask, taskName))
+      {
+        return;
+      }
+      lastTask = taskName;
+    }
+    target.taskChanged(source, taskName);
+  }
+}
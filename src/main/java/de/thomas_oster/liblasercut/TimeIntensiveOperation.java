@@ -18,13 +18,16 @@
  */
 package de.thomas_oster.liblasercut;
 
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class is for easy support for Progress Listeners just extend this class
  * and use the fireProgressChanged and fireTaskNameChanged method.
  *
+ * Listeners are kept in a copy-on-write list, so firing events does not
+ * lock and listeners may be added or removed at any time.
+ *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
 public abstract class TimeIntensiveOperation
@@ -32,60 +35,78 @@ public abstract class TimeIntensiveOperation
 
   //has to be initialized in the getter, because it will be
   //null after deserialization
-  private List<ProgressListener> listeners = null;
+  private volatile List<ProgressListener> listeners = null;
 
   private List<ProgressListener> getListeners()
   {
-    if (listeners == null)
+    List<ProgressListener> result = listeners;
+    if (result == null)
     {
-      listeners = new LinkedList<>();
+      synchronized (this)
+      {
+        if (listeners == null)
+        {
+          listeners = new CopyOnWriteArrayList<>();
+        }
+        result = listeners;
+      }
     }
-    return listeners;
+    return result;
   }
 
   public void addProgressListener(ProgressListener l)
   {
-    synchronized(getListeners())
-    {
-      getListeners().add(l);
-    }
+    getListeners().add(l);
   }
 
   public void removeProgressListener(ProgressListener l)
   {
-    synchronized(getListeners())
-    {
-      getListeners().remove(l);
-    }
+    getListeners().remove(l);
   }
 
   public void fireProgressChanged(int progress)
   {
-    synchronized(getListeners())
+    for (ProgressListener l : getListeners())
     {
-      for (ProgressListener l : getListeners())
-      {
-        l.progressChanged(this, progress);
-      }
+      l.progressChanged(this, progress);
     }
   }
 
   public void fireTaskChanged(String name)
   {
-    synchronized(getListeners())
+    for (ProgressListener l : getListeners())
     {
-      for (ProgressListener l : getListeners())
-      {
-        l.taskChanged(this, name);
-      }
+      l.taskChanged(this, name);
     }
   }
   private int progress = 0;
+  //may be null, e.g. after deserialization
+  private ProgressThrottle progressThrottle = null;
+
+  /**
+   * Limits how often setProgress() notifies the listeners.
+   * By default every change is reported.
+   * @param throttle the policy or null to report every change
+   */
+  public void setProgressThrottle(ProgressThrottle throttle)
+  {
+    this.progressThrottle = throttle;
+  }
+
+  public ProgressThrottle getProgressThrottle()
+  {
+    return progressThrottle;
+  }
 
   protected void setProgress(int progress)
   {
     if (progress != this.progress)
     {
+      ProgressThrottle throttle = progressThrottle;
+      if (throttle != null && !throttle.accept(progress))
+      {
+        return;
+      }
       this.progress = progress;
       this.fireProgressChanged(this.progress);
     }
@@ -134,6 +134,20 @@ public class VectorPart extends JobPart
     }
   }
 
+  /**
+   * move to the first point, then cut lines through all following points
+   * @param x coordinates in dots (according to getDPI())
+   * @param y coordinates in dots (according to getDPI())
+   * @param count number of points to use from x and y
+   */
+  public void polyline(double[] x, double[] y, int count)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      linetoOrMoveto(x[i], y[i], i > 0);
+    }
+  }
+
   @Override
   public double getMinX()
   {
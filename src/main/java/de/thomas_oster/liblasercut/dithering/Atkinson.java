@@ -0,0 +1,52 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+/**
+ * Atkinson error diffusion.
+ * Only 3/4 of the error is diffused, which gives more contrast and keeps
+ * light and dark areas clean.
+ */
+public class Atkinson extends ErrorDiffusion
+{
+
+  private static final Kernel KERNEL = new Kernel(8,
+    new int[]{1, 0, 1}, new int[]{2, 0, 1},
+    new int[]{-1, 1, 1}, new int[]{0, 1, 1}, new int[]{1, 1, 1},
+    new int[]{0, 2, 1});
+
+  @Override
+  protected Kernel getKernel()
+  {
+    return KERNEL;
+  }
+
+  @Override
+  public DitheringAlgorithm clone() {
+    Atkinson clone = new Atkinson();
+    clone.serpentine = serpentine;
+    return clone;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Atkinson";
+  }
+}
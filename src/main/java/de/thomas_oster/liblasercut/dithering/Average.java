@@ -20,6 +20,7 @@ package de.thomas_oster.liblasercut.dithering;
 
 import de.thomas_oster.liblasercut.BlackWhiteRaster;
 import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.util.Arrays;
 
 /**
  *
@@ -29,7 +30,7 @@ public class Average extends  DitheringAlgorithm
 {
 
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  protected RowDitherer getRowDitherer(GreyscaleRaster src) throws InterruptedException
   {
     long lumTotal = 0;
     int pixelcount = 0;
@@ -48,18 +49,16 @@ public class Average extends  DitheringAlgorithm
       setProgress((100 * pixelcount++) / (2 * height));
     }
 
-    int thresh = (int) (lumTotal / height / width);
-    for (int y = 0; y < height; y++)
-    {
-      for (int x = 0; x < width; x++)
-      {
-        this.setBlack(src, target, x, y, src.getGreyScale(x, y) < thresh);
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
+    int[] thresh = new int[width];
+    Arrays.fill(thresh, (int) (lumTotal / height / width));
+    return (y, grey, packed, random) ->
+      setBlackBelowThreshold(grey, thresh, packed);
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherRows(src, target, 50, 100, null, getRowDitherer(src));
   }
 
   @Override
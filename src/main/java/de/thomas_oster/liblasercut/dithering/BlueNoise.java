@@ -0,0 +1,244 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ordered dithering with a blue noise threshold mask.
+ *
+ * The result looks similar to error diffusion (no regular pattern, no
+ * clusters), but every pixel is independent of the others, so it is as fast
+ * and parallelizable as ordered dithering.
+ *
+ * The mask is generated with the void-and-cluster method (R. Ulichney, 1993).
+ * It is tileable and generated only once per size.
+ */
+public class BlueNoise extends Ordered
+{
+
+  private static final String[] properties = new String[]{"Mask size"};
+
+  public static final int MIN_MASK_SIZE = 8;
+  public static final int MAX_MASK_SIZE = 128;
+
+  /**
+   * Generated masks, by size. Entries are never modified.
+   */
+  private static final Map<Integer, int[][]> masks = new ConcurrentHashMap<>();
+
+  /**
+   * width and height of the threshold mask in pixels
+   */
+  protected int maskSize = 64;
+
+  @Override
+  public String[] getPropertyKeys()
+  {
+    return properties;
+  }
+
+  @Override
+  public void setProperty(String key, Object value)
+  {
+    if (properties[0].equals(key))
+    {
+      int size = (Integer) value;
+      if (size < MIN_MASK_SIZE || size > MAX_MASK_SIZE)
+      {
+        throw new IllegalArgumentException("Mask size must be between " + MIN_MASK_SIZE + " and " + MAX_MASK_SIZE);
+      }
+      this.maskSize = size;
+      invalidateThresholdMatrix();
+    }
+    else
+    {
+      throw new IllegalArgumentException("No such key "+key);
+    }
+  }
+
+  @Override
+  public Object getProperty(String key)
+  {
+    if (properties[0].equals(key))
+    {
+      return this.maskSize;
+    }
+    throw new IllegalArgumentException("No such key "+key);
+  }
+
+  @Override
+  protected int[][] getThresholdMatrix()
+  {
+    int[][] mask = masks.computeIfAbsent(maskSize, BlueNoise::generateMask);
+    int[][] copy = new int[mask.length][];
+    for (int i = 0; i < mask.length; i++)
+    {
+      copy[i] = mask[i].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * Generate a size x size threshold matrix with the void-and-cluster method.
+   */
+  static int[][] generateMask(int size)
+  {
+    int n = size * size;
+    // Gaussian filter with wrap-around, indexed by the distance (dx + size * dy)
+    double sigma = 1.5;
+    double[] filter = new double[n];
+    for (int dy = 0; dy < size; dy++)
+    {
+      for (int dx = 0; dx < size; dx++)
+      {
+        int wx = Math.min(dx, size - dx);
+        int wy = Math.min(dy, size - dy);
+        filter[dx + size * dy] = Math.exp(-(wx * wx + wy * wy) / (2 * sigma * sigma));
+      }
+    }
+    boolean[] pattern = new boolean[n];
+    double[] energy = new double[n];
+
+    // initial binary pattern: about 10% randomly placed minority pixels
+    SplittableRandom random = new SplittableRandom(size);
+    int ones = 0;
+    while (ones < Math.max(1, n / 10))
+    {
+      int p = random.nextInt(n);
+      if (!pattern[p])
+      {
+        toggle(pattern, energy, filter, size, p);
+        ones++;
+      }
+    }
+    // move pixels from the tightest cluster to the largest void until stable
+    while (true)
+    {
+      int cluster = extremum(pattern, energy, true);
+      toggle(pattern, energy, filter, size, cluster);
+      int voidPos = extremum(pattern, energy, false);
+      if (voidPos == cluster)
+      {
+        toggle(pattern, energy, filter, size, cluster);
+        break;
+      }
+      toggle(pattern, energy, filter, size, voidPos);
+    }
+
+    int[] rank = new int[n];
+    // phase 1: rank the initial pixels by removing the tightest cluster
+    boolean[] prototype = pattern.clone();
+    double[] prototypeEnergy = energy.clone();
+    for (int r = ones - 1; r >= 0; r--)
+    {
+      int cluster = extremum(pattern, energy, true);
+      toggle(pattern, energy, filter, size, cluster);
+      rank[cluster] = r;
+    }
+    // phase 2 and 3: fill the largest void. Because the filter sum is the
+    // same everywhere, the largest void of the ones is also the tightest
+    // cluster of the remaining zeros.
+    pattern = prototype;
+    energy = prototypeEnergy;
+    for (int r = ones; r < n; r++)
+    {
+      int voidPos = extremum(pattern, energy, false);
+      toggle(pattern, energy, filter, size, voidPos);
+      rank[voidPos] = r;
+    }
+
+    // scale like Halftone: a pixel is black if grey < threshold
+    int[][] result = new int[size][size];
+    for (int y = 0; y < size; y++)
+    {
+      for (int x = 0; x < size; x++)
+      {
+        result[x][y] = (1 + rank[x + size * y]) * 256 / (1 + n);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Filter values further away than this are negligible and skipped
+   */
+  private static final int FILTER_RADIUS = 7;
+
+  /**
+   * Flip pixel p and update the energy of the surrounding pixels
+   */
+  private static void toggle(boolean[] pattern, double[] energy, double[] filter, int size, int p)
+  {
+    pattern[p] = !pattern[p];
+    double sign = pattern[p] ? 1 : -1;
+    int px = p % size;
+    int py = p / size;
+    int from = -FILTER_RADIUS;
+    int to = FILTER_RADIUS;
+    if (size <= 2 * FILTER_RADIUS + 1)
+    {
+      from = 0;
+      to = size - 1;
+    }
+    for (int dy = from; dy <= to; dy++)
+    {
+      int y = Math.floorMod(py + dy, size);
+      int fy = Math.floorMod(dy, size);
+      for (int dx = from; dx <= to; dx++)
+      {
+        int x = Math.floorMod(px + dx, size);
+        energy[x + size * y] += sign * filter[Math.floorMod(dx, size) + size * fy];
+      }
+    }
+  }
+
+  /**
+   * @param cluster true: set pixel with maximal energy (tightest cluster),
+   * false: unset pixel with minimal energy (largest void)
+   */
+  private static int extremum(boolean[] pattern, double[] energy, boolean cluster)
+  {
+    int best = -1;
+    for (int i = 0; i < pattern.length; i++)
+    {
+      if (pattern[i] == cluster && (best == -1 || (cluster ? energy[i] > energy[best] : energy[i] < energy[best])))
+      {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public DitheringAlgorithm clone()
+  {
+    BlueNoise clone = new BlueNoise();
+    clone.maskSize = maskSize;
+    return clone;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Blue Noise";
+  }
+}
@@ -20,10 +20,20 @@ package de.thomas_oster.liblasercut.dithering;
 
 import de.thomas_oster.liblasercut.BlackWhiteRaster;
 import de.thomas_oster.liblasercut.Customizable;
+import de.thomas_oster.liblasercut.GreyRaster;
 import de.thomas_oster.liblasercut.GreyscaleRaster;
+import de.thomas_oster.liblasercut.ProgressAggregator;
+import de.thomas_oster.liblasercut.RasterElement;
 import de.thomas_oster.liblasercut.TimeIntensiveOperation;
 import de.thomas_oster.liblasercut.platform.Util;
 import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  *
@@ -63,6 +73,394 @@ public abstract class DitheringAlgorithm extends TimeIntensiveOperation implemen
 
   protected abstract void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException;
 
+  /**
+   * Number of rows processed by one task of ditherRows().
+   * The stripes do not depend on the number of available cores, so the result
+   * (including the random numbers of each stripe) is reproducible.
+   */
+  private static final int STRIPE_HEIGHT = 32;
+
+  /**
+   * How often (in ms) the waiting thread reports the progress of ditherRows()
+   */
+  private static final int PROGRESS_INTERVAL = 50;
+
+  /**
+   * Dithers a single row for algorithms where each output pixel only depends on
+   * the input pixel and its coordinates (i.e. everything but error diffusion).
+   * Implementations are called concurrently for different rows and must
+   * not modify shared state.
+   */
+  @FunctionalInterface
+  protected interface RowDitherer
+  {
+    /**
+     * @param y row number
+     * @param grey greyscale values of the row (0 = black ... 255 = white)
+     * @param packed output, initially all white. Black pixels are set
+     * with setBlack(packed, x)
+     * @param random random numbers for the current stripe of rows,
+     * null if ditherRows() was called without a random generator
+     */
+    void ditherRow(int y, int[] grey, byte[] packed, SplittableRandom random);
+  }
+
+  /**
+   * Returns the RowDitherer for src, if this algorithm dithers every row
+   * independently of the other rows. This may read the whole image once,
+   * e.g. to compute its average brightness.
+   *
+   * @return null for algorithms which depend on the previous rows
+   */
+  protected RowDitherer getRowDitherer(GreyscaleRaster src) throws InterruptedException
+  {
+    return null;
+  }
+
+  /**
+   * Random generator for the stripes of the RowDitherer, see ditherRows().
+   * Must return a new generator with the same seed on every call.
+   *
+   * @return null if the RowDitherer does not use random numbers
+   */
+  protected SplittableRandom getRowRandom()
+  {
+    return null;
+  }
+
+  /**
+   * Dithers an image row by row, from top to bottom.
+   * Only the state required for the next rows is kept in memory.
+   */
+  public interface RowStream
+  {
+    /**
+     * Dithers the next row.
+     *
+     * @param packed output in the format of BlackWhiteRaster.getRasterLine()
+     */
+    void nextRow(byte[] packed);
+
+    /**
+     * Start again at the first row
+     */
+    void reset();
+  }
+
+  /**
+   * Opens a RowStream, which produces the same rows as dither(src), but only
+   * on demand.
+   * The default implementation streams algorithms with a RowDitherer and
+   * otherwise dithers the complete image up front. Algorithms which need
+   * previous rows can override it to keep only their own state.
+   */
+  public RowStream openRowStream(GreyscaleRaster src) throws InterruptedException
+  {
+    RowDitherer ditherer = getRowDitherer(src);
+    if (ditherer != null)
+    {
+      return new IndependentRowStream(src, ditherer);
+    }
+    BlackWhiteRaster result = dither(src);
+    return new RowStream()
+    {
+      private int y = 0;
+
+      @Override
+      public void nextRow(byte[] packed)
+      {
+        result.getRasterLine(y++, packed);
+      }
+
+      @Override
+      public void reset()
+      {
+        y = 0;
+      }
+    };
+  }
+
+  /**
+   * RowStream for algorithms with a RowDitherer. Uses the same random numbers
+   * per stripe as ditherRows(), so the result is identical.
+   */
+  private class IndependentRowStream implements RowStream
+  {
+    private final GreyscaleRaster src;
+    private final RowDitherer ditherer;
+    private final int[] grey;
+    private final byte[] buffer;
+    private SplittableRandom stripeRandoms;
+    private SplittableRandom random = null;
+    private int y;
+
+    IndependentRowStream(GreyscaleRaster src, RowDitherer ditherer)
+    {
+      this.src = src;
+      this.ditherer = ditherer;
+      this.grey = new int[src.getWidth()];
+      this.buffer = new byte[src.getWidth()];
+      reset();
+    }
+
+    @Override
+    public void nextRow(byte[] packed)
+    {
+      if (stripeRandoms != null && y % STRIPE_HEIGHT == 0)
+      {
+        random = stripeRandoms.split();
+      }
+      readRow(src, y, grey, buffer);
+      Arrays.fill(packed, (byte) 0);
+      ditherer.ditherRow(y, grey, packed, random);
+      y++;
+    }
+
+    @Override
+    public void reset()
+    {
+      y = 0;
+      stripeRandoms = getRowRandom();
+    }
+  }
+
+  /**
+   * Marks pixel x in a packed 1 bit row (as used by BlackWhiteRaster) as black
+   */
+  protected static void setBlack(byte[] packed, int x)
+  {
+    packed[x >> 3] |= 0x80 >>> (x & 7);
+  }
+
+  /**
+   * Sets all pixels of a packed 1 bit row to black where grey[x] &lt; threshold[x].
+   *
+   * This is the inner loop of all threshold based algorithms. It compares eight
+   * pixels at a time without branches and writes each result byte directly,
+   * which is much faster than deciding and setting every pixel on its own.
+   *
+   * @param grey greyscale values, 0...255
+   * @param threshold thresholds, 0...256, at least grey.length entries
+   * @param packed output row, must be cleared before
+   */
+  protected static void setBlackBelowThreshold(int[] grey, int[] threshold, byte[] packed)
+  {
+    int width = grey.length;
+    int full = width & ~7;
+    // (a - b) >>> 31 is 1 if a < b, because all values are small positive numbers
+    for (int x = 0; x < full; x += 8)
+    {
+      packed[x >> 3] = (byte) (
+          ((grey[x] - threshold[x]) >>> 31) << 7
+        | ((grey[x + 1] - threshold[x + 1]) >>> 31) << 6
+        | ((grey[x + 2] - threshold[x + 2]) >>> 31) << 5
+        | ((grey[x + 3] - threshold[x + 3]) >>> 31) << 4
+        | ((grey[x + 4] - threshold[x + 4]) >>> 31) << 3
+        | ((grey[x + 5] - threshold[x + 5]) >>> 31) << 2
+        | ((grey[x + 6] - threshold[x + 6]) >>> 31) << 1
+        | ((grey[x + 7] - threshold[x + 7]) >>> 31));
+    }
+    for (int x = full; x < width; x++)
+    {
+      packed[x >> 3] |= ((grey[x] - threshold[x]) >>> 31) << (7 - (x & 7));
+    }
+  }
+
+  /**
+   * Reads a complete row of greyscale values.
+   * This avoids the per pixel overhead of getGreyScale() for 8 bit GreyRasters.
+   *
+   * @param buffer temporary storage, at least getWidth() bytes, may be null
+   * if src is no 8 bit GreyRaster
+   */
+  protected static void readRow(GreyscaleRaster src, int y, int[] row, byte[] buffer)
+  {
+    int width = src.getWidth();
+    if (src.getClass() == GreyRaster.class)
+    {
+      RasterElement raster = ((GreyRaster) src).getRaster();
+      if (raster.getBitDepth() == 8 && raster.getSamplesPerPixel() == 1 && buffer != null)
+      {
+        raster.getRasterLine(y, buffer);
+        for (int x = 0; x < width; x++)
+        {
+          row[x] = buffer[x] & 0xFF;
+        }
+        return;
+      }
+    }
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = src.getGreyScale(x, y);
+    }
+  }
+
+  /**
+   * Writes a packed 1 bit row into target or, if target is null, back into src.
+   */
+  protected static void writeRow(GreyscaleRaster src, BlackWhiteRaster target, int y, byte[] packed)
+  {
+    if (target != null)
+    {
+      target.setRasterLine(y, packed);
+    }
+    else
+    {
+      for (int x = 0; x < src.getWidth(); x++)
+      {
+        boolean black = (packed[x >> 3] & (0x80 >>> (x & 7))) != 0;
+        src.setGreyScale(x, y, black ? 0 : 255);
+      }
+    }
+  }
+
+  /**
+   * Dithers all rows of src with the given RowDitherer.
+   *
+   * The image is split into stripes of rows which are processed in parallel
+   * on the common ForkJoinPool. Progress listeners are only called from the
+   * calling thread.
+   * When writing back into src (target == null), the rows are processed
+   * sequentially, because GreyscaleRaster implementations need not be thread-safe
+   * for writing.
+   *
+   * @param progressStart progress reported before the first row
+   * @param progressEnd progress reported after the last row
+   * @param random if not null, every stripe gets its own generator split off
+   * this one in a fixed order
+   */
+  protected void ditherRows(GreyscaleRaster src, BlackWhiteRaster target, int progressStart, int progressEnd, SplittableRandom random, RowDitherer ditherer) throws InterruptedException
+  {
+    ProgressAggregator progress = new ProgressAggregator(progressStart, progressEnd);
+    RowStripes stripes = new RowStripes(src, target, random, ditherer, progress.addStage(src.getHeight()));
+    if (target == null || stripes.count == 1 || ForkJoinPool.getCommonPoolParallelism() <= 1)
+    {
+      for (int i = 0; i < stripes.count; i++)
+      {
+        stripes.ditherStripe(i);
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+        setProgress(progress.getProgress());
+      }
+      return;
+    }
+    ForkJoinTask<Void> task = ForkJoinPool.commonPool().submit(stripes.task(0, stripes.count));
+    try
+    {
+      while (true)
+      {
+        try
+        {
+          task.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+          break;
+        }
+        catch (TimeoutException e)
+        {
+          setProgress(progress.getProgress());
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      stripes.cancelled = true;
+      task.cancel(true);
+      throw e;
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error)
+      {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    setProgress(progressEnd);
+  }
+
+  /**
+   * State shared by the tasks of one ditherRows() call
+   */
+  private static class RowStripes
+  {
+    final GreyscaleRaster src;
+    final BlackWhiteRaster target;
+    final RowDitherer ditherer;
+    final SplittableRandom[] randoms;
+    final int height;
+    final int count;
+    final ProgressAggregator.Stage finishedRows;
+    volatile boolean cancelled = false;
+
+    RowStripes(GreyscaleRaster src, BlackWhiteRaster target, SplittableRandom random, RowDitherer ditherer, ProgressAggregator.Stage finishedRows)
+    {
+      this.finishedRows = finishedRows;
+      this.src = src;
+      this.target = target;
+      this.ditherer = ditherer;
+      this.height = src.getHeight();
+      this.count = Math.max(1, (height + STRIPE_HEIGHT - 1) / STRIPE_HEIGHT);
+      if (random != null)
+      {
+        randoms = new SplittableRandom[count];
+        for (int i = 0; i < count; i++)
+        {
+          randoms[i] = random.split();
+        }
+      }
+      else
+      {
+        randoms = null;
+      }
+    }
+
+    void ditherStripe(int stripe)
+    {
+      int width = src.getWidth();
+      int[] grey = new int[width];
+      byte[] buffer = new byte[width];
+      byte[] packed = new byte[(width + 7) / 8];
+      SplittableRandom random = randoms == null ? null : randoms[stripe];
+      for (int y = stripe * STRIPE_HEIGHT; y < Math.min(height, (stripe + 1) * STRIPE_HEIGHT); y++)
+      {
+        if (cancelled)
+        {
+          return;
+        }
+        readRow(src, y, grey, buffer);
+        Arrays.fill(packed, (byte) 0);
+        ditherer.ditherRow(y, grey, packed, random);
+        writeRow(src, target, y, packed);
+        finishedRows.advance();
+      }
+    }
+
+    RecursiveAction task(int from, int to)
+    {
+      return new RecursiveAction()
+      {
+        @Override
+        protected void compute()
+        {
+          if (to - from == 1)
+          {
+            ditherStripe(from);
+          }
+          else
+          {
+            int mid = (from + to) >>> 1;
+            invokeAll(task(from, mid), task(mid, to));
+          }
+        }
+      };
+    }
+  }
+
   @Override
   public String[] getPropertyKeys() {
     return new String[0];
@@ -102,7 +500,7 @@ public abstract class DitheringAlgorithm extends TimeIntensiveOperation implemen
       return false;
     }
     for (String key : own) {
-      if (!Util.differ(getProperty(key), other.getProperty(key))) {
+      if (Util.differ(getProperty(key), other.getProperty(key))) {
         return false;
       }
     }
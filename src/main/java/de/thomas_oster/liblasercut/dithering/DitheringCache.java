@@ -0,0 +1,345 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for dithering results.
+ *
+ * Results are identified by a hash of the greyscale content of the source
+ * image together with the dithering algorithm and its properties, so
+ * dithering the same image with the same settings again just copies the
+ * stored 1 bit raster.
+ *
+ * Recently used results are kept in memory up to a given number of bytes.
+ * If a directory is given, all results are also stored there as packed
+ * 1 bit rasters and survive a restart.
+ *
+ * This class is thread safe.
+ */
+public class DitheringCache
+{
+
+  private static final int FILE_MAGIC = 0x4c4c4443; // "LLDC"
+  private static final int FILE_VERSION = 1;
+
+  private final long maxMemoryBytes;
+  private final File directory;
+  private final LinkedHashMap<Key, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @param maxMemoryBytes maximum size of all results kept in memory
+   */
+  public DitheringCache(long maxMemoryBytes)
+  {
+    this(maxMemoryBytes, null);
+  }
+
+  /**
+   * @param maxMemoryBytes maximum size of all results kept in memory
+   * @param directory directory for storing results on disk, or null for
+   * memory only. It is created if it does not exist.
+   */
+  public DitheringCache(long maxMemoryBytes, File directory)
+  {
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.directory = directory;
+  }
+
+  /**
+   * Dithers src with alg into target, or copies the result of an earlier
+   * call with the same image and settings.
+   */
+  public void ditherDirect(GreyscaleRaster src, DitheringAlgorithm alg, BlackWhiteRaster target) throws InterruptedException
+  {
+    if (target.getWidth() != src.getWidth() || target.getHeight() != src.getHeight())
+    {
+      throw new IllegalArgumentException("Target size does not match the source image");
+    }
+    Key key = new Key(src, alg);
+    byte[] data = target.getRaster().getImageData();
+    byte[] cached = getFromMemory(key);
+    if (cached == null && directory != null)
+    {
+      cached = readFile(key, data.length);
+      if (cached != null)
+      {
+        putInMemory(key, cached);
+      }
+    }
+    if (cached != null)
+    {
+      System.arraycopy(cached, 0, data, 0, data.length);
+      synchronized (this)
+      {
+        hits++;
+      }
+      return;
+    }
+    synchronized (this)
+    {
+      misses++;
+    }
+    alg.ditherDirect(src, target);
+    byte[] result = data.clone();
+    putInMemory(key, result);
+    if (directory != null)
+    {
+      writeFile(key, result);
+    }
+  }
+
+  /**
+   * @see #ditherDirect(GreyscaleRaster, DitheringAlgorithm, BlackWhiteRaster)
+   */
+  public BlackWhiteRaster dither(GreyscaleRaster src, DitheringAlgorithm alg) throws InterruptedException
+  {
+    BlackWhiteRaster target = new BlackWhiteRaster(src.getWidth(), src.getHeight());
+    ditherDirect(src, alg, target);
+    return target;
+  }
+
+  /**
+   * Removes all results from memory. Files on disk are kept.
+   */
+  public synchronized void clearMemory()
+  {
+    memory.clear();
+    memoryBytes = 0;
+  }
+
+  public synchronized long getMemoryBytes()
+  {
+    return memoryBytes;
+  }
+
+  public synchronized long getHitCount()
+  {
+    return hits;
+  }
+
+  public synchronized long getMissCount()
+  {
+    return misses;
+  }
+
+  private synchronized byte[] getFromMemory(Key key)
+  {
+    return memory.get(key);
+  }
+
+  private synchronized void putInMemory(Key key, byte[] data)
+  {
+    if (data.length > maxMemoryBytes)
+    {
+      return;
+    }
+    byte[] old = memory.put(key, data);
+    if (old != null)
+    {
+      memoryBytes -= old.length;
+    }
+    memoryBytes += data.length;
+    Iterator<byte[]> eldest = memory.values().iterator();
+    while (memoryBytes > maxMemoryBytes)
+    {
+      memoryBytes -= eldest.next().length;
+      eldest.remove();
+    }
+  }
+
+  private File getFile(Key key)
+  {
+    return new File(directory, String.format("%016x%016x-%08x.bw", key.hash1, key.hash2, key.description.hashCode()));
+  }
+
+  /**
+   * @return the stored raster data or null if there is no (valid) file
+   */
+  private byte[] readFile(Key key, int length)
+  {
+    File file = getFile(key);
+    if (!file.isFile())
+    {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()))))
+    {
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION
+        || in.readInt() != key.width || in.readInt() != key.height
+        || in.readLong() != key.hash1 || in.readLong() != key.hash2
+        || !key.description.equals(in.readUTF()) || in.readInt() != length)
+      {
+        return null;
+      }
+      byte[] data = new byte[length];
+      in.readFully(data);
+      return data;
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Stores the raster data. The cache is only an optimization, so errors
+   * are ignored.
+   */
+  private void writeFile(Key key, byte[] data)
+  {
+    File file = getFile(key);
+    try
+    {
+      Files.createDirectories(directory.toPath());
+      File tmp = File.createTempFile("dither", ".tmp", directory);
+      try
+      {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))))
+        {
+          out.writeInt(FILE_MAGIC);
+          out.writeInt(FILE_VERSION);
+          out.writeInt(key.width);
+          out.writeInt(key.height);
+          out.writeLong(key.hash1);
+          out.writeLong(key.hash2);
+          out.writeUTF(key.description);
+          out.writeInt(data.length);
+          out.write(data);
+        }
+        try
+        {
+          Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+          Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      finally
+      {
+        Files.deleteIfExists(tmp.toPath());
+      }
+    }
+    catch (IOException e)
+    {
+      // not cached on disk
+    }
+  }
+
+  /**
+   * Identifies a dithering result: size and content hash of the source image
+   * and the algorithm with all its properties.
+   */
+  private static final class Key
+  {
+
+    private final int width;
+    private final int height;
+    private final long hash1;
+    private final long hash2;
+    private final DitheringAlgorithm algorithm;
+    /**
+     * Algorithm class and properties as text, used to identify files
+     */
+    private final String description;
+
+    Key(GreyscaleRaster src, DitheringAlgorithm alg)
+    {
+      width = src.getWidth();
+      height = src.getHeight();
+      // a copy, so later changes of the caller's algorithm do not change the key
+      algorithm = alg.clone();
+      StringBuilder desc = new StringBuilder(alg.getClass().getName());
+      for (String property : alg.getPropertyKeys())
+      {
+        desc.append(';').append(property).append('=').append(alg.getProperty(property));
+      }
+      description = desc.toString();
+
+      // two independent 64 bit hashes over eight pixels at a time
+      long h1 = 0x9e3779b97f4a7c15L ^ width;
+      long h2 = 0xc2b2ae3d27d4eb4fL ^ height;
+      int[] row = new int[width];
+      byte[] buffer = new byte[width];
+      for (int y = 0; y < height; y++)
+      {
+        DitheringAlgorithm.readRow(src, y, row, buffer);
+        for (int x = 0; x < width; x += 8)
+        {
+          long k = 0;
+          for (int i = x, end = Math.min(x + 8, width); i < end; i++)
+          {
+            k = (k << 8) | (row[i] & 0xff);
+          }
+          h1 = Long.rotateLeft(h1 ^ mix(k), 27) * 5 + 0x52dce729;
+          h2 = Long.rotateLeft(h2 ^ mix(k ^ 0x38495ab5L), 31) * 5 + 0x38495ab5;
+        }
+      }
+      hash1 = mix(h1);
+      hash2 = mix(h2 ^ h1);
+    }
+
+    private static long mix(long k)
+    {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      Key other = (Key) o;
+      return width == other.width && height == other.height
+        && hash1 == other.hash1 && hash2 == other.hash2
+        && algorithm.equals(other.algorithm);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (int) hash1 * 31 + algorithm.hashCode();
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.util.Arrays;
+
+/**
+ * Generic error diffusion dithering.
+ * Every pixel is set to black or white and the difference to the original
+ * value is distributed to the not yet processed neighbours, according to
+ * the Kernel of the concrete algorithm.
+ *
+ * Only kernel.getRows() rows of the image are kept in a ring buffer and
+ * no memory is allocated per pixel.
+ */
+public abstract class ErrorDiffusion extends DitheringAlgorithm
+{
+
+  /**
+   * Distribution of the quantization error to the neighbouring pixels
+   */
+  protected static final class Kernel
+  {
+    private final int[] dx;
+    private final int[] dy;
+    private final int[] weight;
+    private final int divisor;
+    private final int rows;
+    private final int padding;
+
+    /**
+     * @param divisor the error is multiplied by weight/divisor
+     * @param entries {dx, dy, weight} for every neighbour. dy must be &gt;= 0,
+     * and dx must be &gt; 0 for dy == 0.
+     */
+    public Kernel(int divisor, int[]... entries)
+    {
+      this.divisor = divisor;
+      dx = new int[entries.length];
+      dy = new int[entries.length];
+      weight = new int[entries.length];
+      int maxDy = 0;
+      int maxDx = 0;
+      for (int i = 0; i < entries.length; i++)
+      {
+        dx[i] = entries[i][0];
+        dy[i] = entries[i][1];
+        weight[i] = entries[i][2];
+        if (dy[i] < 0 || (dy[i] == 0 && dx[i] <= 0))
+        {
+          throw new IllegalArgumentException("Error can only be diffused to unprocessed pixels");
+        }
+        maxDy = Math.max(maxDy, dy[i]);
+        maxDx = Math.max(maxDx, Math.abs(dx[i]));
+      }
+      this.rows = maxDy + 1;
+      this.padding = maxDx;
+    }
+
+    /**
+     * number of rows which are affected by one pixel, including the current row
+     */
+    public int getRows()
+    {
+      return rows;
+    }
+  }
+
+  private static final String[] properties = new String[]{"Serpentine"};
+
+  /**
+   * Process every second row from right to left.
+   * This avoids the "worm" artifacts of unidirectional scanning.
+   */
+  protected boolean serpentine = false;
+
+  protected abstract Kernel getKernel();
+
+  @Override
+  public String[] getPropertyKeys()
+  {
+    return properties;
+  }
+
+  @Override
+  public void setProperty(String key, Object value)
+  {
+    if (properties[0].equals(key))
+    {
+      this.serpentine = (Boolean) value;
+    }
+    else
+    {
+      throw new IllegalArgumentException("No such key "+key);
+    }
+  }
+
+  @Override
+  public Object getProperty(String key)
+  {
+    if (properties[0].equals(key))
+    {
+      return this.serpentine;
+    }
+    throw new IllegalArgumentException("No such key "+key);
+  }
+
+  @Override
+  public RowStream openRowStream(GreyscaleRaster src)
+  {
+    return new ErrorRowStream(src, getKernel(), serpentine);
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    int height = src.getHeight();
+    RowStream rows = openRowStream(src);
+    byte[] packed = new byte[(src.getWidth() + 7) / 8];
+    for (int y = 0; y < height; y++)
+    {
+      rows.nextRow(packed);
+      writeRow(src, target, y, packed);
+      setProgress((100 * y) / height);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * The actual error diffusion. Only the rows which still receive errors
+   * are kept in memory.
+   */
+  private static class ErrorRowStream implements RowStream
+  {
+    private final GreyscaleRaster src;
+    private final Kernel k;
+    private final boolean serpentine;
+    private final int width;
+    private final int height;
+    private final int pad;
+    private final int rows;
+    private final int[][] ring;
+    private final int[] row;
+    private final byte[] buffer;
+    // target row and column offset of every kernel entry for the current row
+    private final int[][] targetRows;
+    private final int[] offsets;
+    private int y;
+
+    ErrorRowStream(GreyscaleRaster src, Kernel k, boolean serpentine)
+    {
+      this.src = src;
+      this.k = k;
+      this.serpentine = serpentine;
+      this.width = src.getWidth();
+      this.height = src.getHeight();
+      this.pad = k.padding;
+      /*
+        We have to copy the input image, because we will
+        alter the pixels during dither process and don't want
+        to destroy the input image.
+        Row y is stored in ring[y % rows], shifted by pad so that errors
+        diffused over the left and right border need no bounds check.
+       */
+      this.rows = k.rows;
+      this.ring = new int[rows][width + 2 * pad];
+      this.row = new int[width];
+      this.buffer = new byte[width];
+      this.targetRows = new int[k.weight.length][];
+      this.offsets = new int[k.weight.length];
+      reset();
+    }
+
+    @Override
+    public void reset()
+    {
+      y = 0;
+      for (int i = 0; i < rows; i++)
+      {
+        load(i);
+      }
+    }
+
+    /**
+     * copy row i of the source image into its ring buffer entry
+     */
+    private void load(int i)
+    {
+      int[] target = ring[i % rows];
+      Arrays.fill(target, 0);
+      if (i < height)
+      {
+        readRow(src, i, row, buffer);
+        System.arraycopy(row, 0, target, pad, width);
+      }
+    }
+
+    @Override
+    public void nextRow(byte[] packed)
+    {
+      int n = k.weight.length;
+      int divisor = k.divisor;
+      int[] weight = k.weight;
+      int[] current = ring[y % rows];
+      boolean leftToRight = !serpentine || y % 2 == 0;
+      int dir = leftToRight ? 1 : -1;
+      for (int j = 0; j < n; j++)
+      {
+        targetRows[j] = ring[(y + k.dy[j]) % rows];
+        offsets[j] = pad + dir * k.dx[j];
+      }
+      Arrays.fill(packed, (byte) 0);
+      for (int i = 0; i < width; i++)
+      {
+        int x = leftToRight ? i : width - 1 - i;
+        int value = current[pad + x];
+        boolean black = value <= 127;
+        if (black)
+        {
+          setBlack(packed, x);
+        }
+        int error = black ? value : value - 255;
+        if (error != 0)
+        {
+          for (int j = 0; j < n; j++)
+          {
+            targetRows[j][x + offsets[j]] += weight[j] * error / divisor;
+          }
+        }
+      }
+      // recycle the ring buffer entry for the next unread row
+      if (y + rows < height)
+      {
+        load(y + rows);
+      }
+      y++;
+    }
+  }
+}
@@ -71,7 +71,7 @@ public class Grid extends DitheringAlgorithm
   protected int blockdistance = 5;
 
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  protected RowDitherer getRowDitherer(GreyscaleRaster src) throws InterruptedException
   {
     long lumTotal = 0;
     int pixelcount = 0;
@@ -91,20 +91,28 @@ public class Grid extends DitheringAlgorithm
     }
 
     int thresh = (int) (lumTotal / height / width);
-    for (int y = 0; y < height; y++)
+    int period = blocksize + blockdistance;
+    int size = blocksize;
+    return (y, grey, packed, random) ->
     {
-      for (int x = 0; x < width; x++)
+      if (y % period > size)
       {
-        boolean isBlack = (y % (blocksize + blockdistance) <= blocksize
-          && x % (blocksize + blockdistance) <= blocksize
-          && src.getGreyScale(x, y) < thresh);
-          this.setBlack(src, target, x, y, isBlack);
+        return;
       }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
+      for (int x = 0; x < grey.length; x++)
+      {
+        if (x % period <= size && grey[x] < thresh)
+        {
+          setBlack(packed, x);
+        }
       }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
+    };
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherRows(src, target, 50, 100, null, getRowDitherer(src));
   }
 
   @Override
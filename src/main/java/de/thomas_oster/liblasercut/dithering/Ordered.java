@@ -28,6 +28,15 @@ import de.thomas_oster.liblasercut.GreyscaleRaster;
 public class Ordered extends DitheringAlgorithm
 {
 
+  /**
+   * getThresholdMatrix(), computed once per instance
+   */
+  private int[][] thresholdMatrix = null;
+
+  /**
+   * Threshold matrix, indexed as [x][y].
+   * A pixel is black if its greyscale value is lower than the matrix entry.
+   */
   protected int[][] getThresholdMatrix()
   {
     return new int[][]{
@@ -45,65 +54,55 @@ public class Ordered extends DitheringAlgorithm
       },
     };
   }
-  @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
-  {
-    int width = src.getWidth();
-    int height = src.getHeight();
-    int[][] filter = getThresholdMatrix();
-    int nPatWid = filter.length;
-
 
-    int x;
-    int y;
-    int pixelcount = 0;
-
-    for (y = 0; y < (height - nPatWid); y = y + nPatWid)
+  /**
+   * Returns the threshold matrix, which is computed only once per instance.
+   * The returned array must not be modified.
+   */
+  protected final int[][] getCachedThresholdMatrix()
+  {
+    if (thresholdMatrix == null)
     {
-
-      for (x = 0; x < (width - nPatWid); x = x + nPatWid)
-      {
-
-        for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-        {
-          for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-      {
-        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-        {
-
-          if (((x + xdelta) < width) && ((y + ydelta) < height))
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (height));
+      thresholdMatrix = getThresholdMatrix();
     }
+    return thresholdMatrix;
+  }
+
+  /**
+   * Must be called when the result of getThresholdMatrix() changes,
+   * e.g. because a property was changed.
+   */
+  protected void invalidateThresholdMatrix()
+  {
+    thresholdMatrix = null;
+  }
 
-    // y is at max; loop through x
-    for (x = 0; x < (width); x = x + nPatWid)
+  @Override
+  protected RowDitherer getRowDitherer(GreyscaleRaster src)
+  {
+    // the matrix is tiled over the whole image, so every pixel only
+    // depends on its coordinates and the rows can be processed in parallel.
+    // Expand every matrix row to the full image width once, so
+    // the inner loop is a plain element-wise comparison
+    int[][] filter = getCachedThresholdMatrix();
+    int nPatWid = filter.length;
+    int width = src.getWidth();
+    int[][] tiledRows = new int[nPatWid][width];
+    for (int ydelta = 0; ydelta < nPatWid; ydelta++)
     {
-      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
+      for (int x = 0; x < width; x++)
       {
-        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-        {
-
-          if (((x + xdelta) < width) && ((y + ydelta) < height))
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
+        tiledRows[ydelta][x] = filter[x % nPatWid][ydelta];
       }
     }
+    return (y, grey, packed, random) ->
+      setBlackBelowThreshold(grey, tiledRows[y % nPatWid], packed);
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherRows(src, target, 0, 100, null, getRowDitherer(src));
   }
 
   @Override
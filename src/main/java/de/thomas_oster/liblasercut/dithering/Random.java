@@ -20,6 +20,7 @@ package de.thomas_oster.liblasercut.dithering;
 
 import de.thomas_oster.liblasercut.BlackWhiteRaster;
 import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.util.SplittableRandom;
 
 /**
  *
@@ -28,30 +29,75 @@ import de.thomas_oster.liblasercut.GreyscaleRaster;
 public class Random extends DitheringAlgorithm
 {
 
+  private static final String[] properties = new String[]{"Seed"};
+
+  /**
+   * Seed for the random numbers. The same seed always gives the same result,
+   * regardless of the number of cores used for dithering.
+   */
+  protected int seed = 0;
+
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  public String[] getPropertyKeys()
+  {
+    return properties;
+  }
+
+  @Override
+  public void setProperty(String key, Object value)
   {
-    int width = src.getWidth();
-    int height = src.getHeight();
-    int pixelcount = 0;
-    java.util.Random r = new java.util.Random();
+    if (properties[0].equals(key))
+    {
+      this.seed = (Integer) value;
+    }
+    else
+    {
+      throw new IllegalArgumentException("No such key "+key);
+    }
+  }
 
-    for (int y = 0; y < height; y++)
+  @Override
+  public Object getProperty(String key)
+  {
+    if (properties[0].equals(key))
     {
-      for (int x = 0; x < width; x++)
+      return this.seed;
+    }
+    throw new IllegalArgumentException("No such key "+key);
+  }
+
+  @Override
+  protected SplittableRandom getRowRandom()
+  {
+    return new SplittableRandom(seed);
+  }
+
+  @Override
+  protected RowDitherer getRowDitherer(GreyscaleRaster src)
+  {
+    return (y, grey, packed, r) ->
+    {
+      for (int x = 0; x < grey.length; x++)
       {
-        this.setBlack(src, target, x, y, src.getGreyScale(x, y) < r.nextInt(256));
+        if (grey[x] < r.nextInt(256))
+        {
+          setBlack(packed, x);
+        }
       }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (height));
-    }
+    };
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherRows(src, target, 0, 100, getRowRandom(), getRowDitherer(src));
   }
 
   @Override
   public DitheringAlgorithm clone() {
-    return new Random();
+    Random clone = new Random();
+    clone.seed = seed;
+    return clone;
   }
 
   @Override
@@ -0,0 +1,162 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A printf format for one line of G-code, parsed once and then reused for
+ * every line.
+ *
+ * Only %d, %f, %s and %% without flags, width or precision are supported.
+ * The output is the same as String.format(Locale.US, format, args). Formats
+ * or arguments that are not supported are passed on to String.format.
+ */
+final class GcodeLineTemplate
+{
+
+  private static final int FRACTION_DIGITS = 6;
+
+  private final String format;
+  /**
+   * text before each conversion, and after the last one
+   */
+  private final String[] literals;
+  /**
+   * 'd', 'f' or 's', null if the format is not supported
+   */
+  private final char[] conversions;
+
+  private GcodeLineTemplate(String format, String[] literals, char[] conversions)
+  {
+    this.format = format;
+    this.literals = literals;
+    this.conversions = conversions;
+  }
+
+  static GcodeLineTemplate parse(String format)
+  {
+    List<String> literals = new ArrayList<>();
+    StringBuilder conversions = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < format.length(); i++)
+    {
+      char c = format.charAt(i);
+      if (c != '%')
+      {
+        literal.append(c);
+        continue;
+      }
+      char conversion = i + 1 < format.length() ? format.charAt(i + 1) : 0;
+      i++;
+      if (conversion == '%')
+      {
+        literal.append('%');
+      }
+      else if (conversion == 'd' || conversion == 'f' || conversion == 's')
+      {
+        literals.add(literal.toString());
+        literal.setLength(0);
+        conversions.append(conversion);
+      }
+      else
+      {
+        return new GcodeLineTemplate(format, null, null);
+      }
+    }
+    literals.add(literal.toString());
+    return new GcodeLineTemplate(format, literals.toArray(new String[0]), conversions.toString().toCharArray());
+  }
+
+  /**
+   * Appends the formatted line (without line end) to result
+   */
+  void appendTo(AsciiBuffer result, Object... args)
+  {
+    if (!isSupported(args))
+    {
+      result.append(String.format(Locale.US, format, args));
+      return;
+    }
+    for (int i = 0; i < conversions.length; i++)
+    {
+      result.append(literals[i]);
+      Object arg = args[i];
+      if (arg == null)
+      {
+        result.append("null");
+      }
+      else if (conversions[i] == 'f')
+      {
+        result.append(((Number) arg).doubleValue(), FRACTION_DIGITS);
+      }
+      else if (conversions[i] == 'd')
+      {
+        result.append(((Number) arg).longValue());
+      }
+      else
+      {
+        result.append(arg.toString());
+      }
+    }
+    result.append(literals[conversions.length]);
+  }
+
+  private boolean isSupported(Object[] args)
+  {
+    if (conversions == null || args.length < conversions.length)
+    {
+      return false;
+    }
+    for (int i = 0; i < conversions.length; i++)
+    {
+      Object arg = args[i];
+      if (arg == null)
+      {
+        continue;
+      }
+      switch (conversions[i])
+      {
+        case 'd':
+          if (!(arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte))
+          {
+            return false;
+          }
+          break;
+        case 'f':
+          // only doubles, the rounding of other types is up to the Formatter
+          if (!(arg instanceof Double))
+          {
+            return false;
+          }
+          break;
+        default:
+          if (arg instanceof Formattable)
+          {
+            return false;
+          }
+      }
+    }
+    return true;
+  }
+}
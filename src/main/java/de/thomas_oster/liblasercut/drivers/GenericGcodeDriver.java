@@ -28,10 +28,13 @@ import de.thomas_oster.liblasercut.OptionSelector;
 import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.ProgressListenerDummy;
 import de.thomas_oster.liblasercut.RasterizableJobPart;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
 import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
 import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.vectoroptimizers.MachineTimeCostModel;
+import de.thomas_oster.liblasercut.vectoroptimizers.TravelCostModel;
 import net.sf.corn.httpclient.HttpClient;
 import net.sf.corn.httpclient.HttpResponse;
 import purejavacomm.CommPort;
@@ -42,6 +45,7 @@ import purejavacomm.PureJavaIllegalStateException;
 import purejavacomm.SerialPort;
 import purejavacomm.UnsupportedCommOperationException;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -57,9 +61,11 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * This class implements a driver for a generic GRBL GCode Lasercutter.
@@ -511,18 +517,27 @@ public class GenericGcodeDriver extends LaserCutter {
   protected void line(PrintStream out, double x, double y, double resolution) throws IOException {
     x = isFlipXaxis() ? getBedWidth() - Util.px2mm(x, resolution) : Util.px2mm(x, resolution);
     y = isFlipYaxis() ? getBedHeight() - Util.px2mm(y, resolution) : Util.px2mm(y, resolution);
-    String append = "";
-    if (nextPower != currentPower)
+    boolean changePower = nextPower != currentPower;
+    boolean changeSpeed = nextSpeed != currentSpeed;
+    currentPower = nextPower;
+    currentSpeed = nextSpeed;
+    // one fixed format per combination, so that the templates can be reused
+    if (changePower && changeSpeed)
     {
-      append += String.format(FORMAT_LOCALE, " S%f", nextPower);
-      currentPower = nextPower;
+      sendLine("G1 X%f Y%f S%f F%d", x, y, nextPower, (int) (max_speed*nextSpeed/100.0));
     }
-    if (nextSpeed != currentSpeed)
+    else if (changePower)
     {
-      append += String.format(FORMAT_LOCALE, " F%d", (int) (max_speed*nextSpeed/100.0));
-      currentSpeed = nextSpeed;
+      sendLine("G1 X%f Y%f S%f", x, y, nextPower);
+    }
+    else if (changeSpeed)
+    {
+      sendLine("G1 X%f Y%f F%d", x, y, (int) (max_speed*nextSpeed/100.0));
+    }
+    else
+    {
+      sendLine("G1 X%f Y%f", x, y);
     }
-    sendLine("G1 X%f Y%f"+append, x, y);
   }
 
   private void writeInitializationCode() throws IOException {
@@ -549,13 +564,56 @@ public class GenericGcodeDriver extends LaserCutter {
   protected BufferedReader in;
   protected PrintStream out;
   private Socket socket;
+  /**
+   * the sender thread of out, null if not sending in the background
+   */
+  private PipelinedOutputStream pipeline;
   private CommPort port;
   private CommPortIdentifier portIdentifier;
 
+  /**
+   * Parsed formats of sendLine(), cleared when it gets too large
+   * (e.g. because of many different pre/post job lines)
+   */
+  private final Map<String, GcodeLineTemplate> lineTemplates = new HashMap<>();
+  private static final int MAX_LINE_TEMPLATES = 1000;
+  private final AsciiBuffer lineBuffer = new AsciiBuffer();
+
+  /**
+   * Formats a line like String.format with FORMAT_LOCALE and appends LINEEND()
+   * @return a buffer which is reused by the next call
+   */
+  protected AsciiBuffer formatLine(String text, Object... parameters)
+  {
+    GcodeLineTemplate template = lineTemplates.get(text);
+    if (template == null)
+    {
+      if (lineTemplates.size() >= MAX_LINE_TEMPLATES)
+      {
+        lineTemplates.clear();
+      }
+      template = GcodeLineTemplate.parse(text);
+      lineTemplates.put(text, template);
+    }
+    lineBuffer.clear();
+    template.appendTo(lineBuffer, parameters);
+    lineBuffer.append(LINEEND());
+    return lineBuffer;
+  }
+
+  /**
+   * Formats a line (see formatLine()) and writes it to out. The output is
+   * not flushed, it is flushed by waitForLine() or when the stream's buffer
+   * is full.
+   */
+  protected void writeLine(String text, Object... parameters) throws IOException
+  {
+    formatLine(text, parameters).writeTo(out);
+  }
+
   protected void sendLine(String text, Object... parameters) throws IOException
   {
-    out.format(FORMAT_LOCALE, text+LINEEND(), parameters);
-    out.flush();
+    writeLine(text, parameters);
     if (isWaitForOKafterEachLine())
     {
       String line = waitForLine();
@@ -604,8 +662,12 @@ public class GenericGcodeDriver extends LaserCutter {
     }
   }
 
+  /**
+   * Flushes the output and waits for the next non-empty line
+   */
   protected String waitForLine() throws IOException
   {
+    out.flush();
     String line = "";
     while ("".equals(line))
     {//skip empty lines
@@ -637,6 +699,22 @@ public class GenericGcodeDriver extends LaserCutter {
     return null;
   }
 
+  /**
+   * Buffers the output of a serial port or socket. Unless waiting for "ok"
+   * after each line, a sender thread writes to the port while the next
+   * lines are generated (see PipelinedOutputStream).
+   */
+  protected OutputStream openOutput(OutputStream portOutput)
+  {
+    if (isWaitForOKafterEachLine())
+    {
+      pipeline = null;
+      return new BufferedOutputStream(portOutput);
+    }
+    pipeline = new PipelinedOutputStream(portOutput);
+    return pipeline;
+  }
+
   protected String connectSerial(CommPortIdentifier i, ProgressListener pl) throws PortInUseException, IOException, UnsupportedCommOperationException
   {
     pl.taskChanged(this, "opening '"+i.getName()+"'");
@@ -659,7 +737,7 @@ public class GenericGcodeDriver extends LaserCutter {
           sp.setSerialPortParams(getBaudRate(), 8, 1, 0);
           sp.setDTR(true);
         }
-        out = new PrintStream(port.getOutputStream(), true, StandardCharsets.US_ASCII);
+        out = new PrintStream(openOutput(port.getOutputStream()), false, StandardCharsets.US_ASCII);
         in = new BufferedReader(new InputStreamReader(port.getInputStream()));
         // Wait 5 seconds since GRBL is long to wake up..
         for (int rest = getInitDelay(); rest > 0; rest--) {
@@ -713,6 +791,7 @@ public class GenericGcodeDriver extends LaserCutter {
   protected void connect(ProgressListener pl) throws IOException, PortInUseException, NoSuchPortException, UnsupportedCommOperationException
   {
     outputBuffer = null;
+    pipeline = null;
     if (UPLOAD_METHOD_IP.equals(uploadMethod))
     {
       if (getHost() == null || getHost().equals(""))
@@ -722,7 +801,7 @@ public class GenericGcodeDriver extends LaserCutter {
       socket = new Socket();
       socket.connect(new InetSocketAddress(getHost(), 23), 1000);
       in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.US_ASCII);
+      out = new PrintStream(openOutput(socket.getOutputStream()), false, StandardCharsets.US_ASCII);
       String line = waitForIdentificationLine(pl);
       if (line != null)
       {
@@ -787,7 +866,7 @@ public class GenericGcodeDriver extends LaserCutter {
         throw new IOException("Export Path must be set to upload via File method.");
       }
       File file = new File(getExportPath(), this.jobName);
-      out = new PrintStream(new FileOutputStream(file));
+      out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
       setWaitForOKafterEachLine(false);
       in = null;
     }
@@ -818,6 +897,7 @@ public class GenericGcodeDriver extends LaserCutter {
       {
         in.close();
       }
+      // waits until the sender thread has written everything
       out.close();
       if (this.socket != null)
       {
@@ -829,6 +909,8 @@ public class GenericGcodeDriver extends LaserCutter {
         this.port.close();
         this.port = null;
       }
+      checkOutput();
+      pipeline = null;
     }
 
   }
@@ -852,15 +934,82 @@ public class GenericGcodeDriver extends LaserCutter {
     }
     catch (IOException e) {
       pl.taskChanged(this, "disconnecting");
-      disconnect(this.jobName);
+      try
+      {
+        disconnect(this.jobName);
+      }
+      catch (IOException ex)
+      {
+        e.addSuppressed(ex);
+      }
       throw e;
     }
     pl.taskChanged(this, "sent.");
     pl.progressChanged(this, 100);
   }
   
+  /**
+   * Number of raster lines which are converted and sent at once
+   */
+  private static final int RASTER_LINES_PER_BATCH = 16;
+
+  /**
+   * Converts a raster part to G-code in batches of lines, so the first
+   * lines are sent while the rest of the image is not converted yet
+   */
+  protected void writeRasterGCode(RasterizableJobPart rp, LaserJob job) throws IOException
+  {
+    LaserProperty property = rp.getLaserProperty();
+    for (int y = 0; y < rp.getRasterHeight(); y += RASTER_LINES_PER_BATCH)
+    {
+      // each batch starts with the property the previous one ended with
+      VectorPart batch = new VectorPart(property, rp.getDPI());
+      // Note: It's difficult to choose "the right" setting for whether to use moveto() or lineto() for white engrave pixels.
+      // For smooth engraving and compatibility with previous LibLaserCut versions, we use lineto().
+      // This won't work with boards that ignore the laser power setting (S0 ... S1) and only consider G0/G1 (move/line).
+      // Therefore it should be made configurable.
+      convertRasterLinesToVectorPart(rp, job, getUseBidirectionalRastering(), false, false, y, Math.min(y + RASTER_LINES_PER_BATCH, rp.getRasterHeight()), batch);
+      writeVectorGCode(batch, rp.getDPI());
+      property = batch.getCurrentCuttingProperty();
+      checkSendError();
+    }
+  }
+
+  /**
+   * Throws the error of the sender thread, e.g. when the port is gone in the
+   * middle of a job, instead of generating the rest of the job for nothing.
+   * Does not flush, so it can be called after every part.
+   */
+  protected void checkSendError() throws IOException
+  {
+    IOException cause = pipeline != null ? pipeline.getError() : null;
+    if (cause != null)
+    {
+      throw sendError(cause);
+    }
+  }
+
+  /**
+   * PrintStream does not throw on write errors. Throws them at the end of
+   * the job. checkError() flushes out, so don't call this between parts.
+   */
+  protected void checkOutput() throws IOException
+  {
+    if (out.checkError())
+    {
+      throw sendError(pipeline != null ? pipeline.getError() : null);
+    }
+  }
+
+  private static IOException sendError(IOException cause)
+  {
+    return new IOException("Error while sending to the lasercutter" + (cause != null ? ": " + cause.getMessage() : ""), cause);
+  }
+
   public void writeJobCode(LaserJob job, ProgressListener pl) throws IOException {
     writeInitializationCode();
+    // start sending before the first part is converted
+    out.flush();
     pl.progressChanged(this, 20);
     int i = 0;
     int max = job.getParts().size();
@@ -868,18 +1017,15 @@ public class GenericGcodeDriver extends LaserCutter {
     {
       if (p instanceof RasterizableJobPart)
       {
-        // Note: It's difficult to choose "the right" setting for whether to use moveto() or lineto() for white engrave pixels.
-        // For smooth engraving and compatibility with previous LibLaserCut versions, we use lineto().
-        // This won't work with boards that ignore the laser power setting (S0 ... S1) and only consider G0/G1 (move/line).
-        // Therefore it should be made configurable.
-        p = convertRasterizableToVectorPart((RasterizableJobPart) p, job, getUseBidirectionalRastering(), false, false);
+        writeRasterGCode((RasterizableJobPart) p, job);
       }
-      if (p instanceof VectorPart)
+      else if (p instanceof VectorPart)
       {
         //TODO: in direct mode use progress listener to indicate progress
         //of individual job
         writeVectorGCode((VectorPart) p, p.getDPI());
       }
+      checkSendError();
       i++;
       pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
     }
@@ -893,11 +1039,12 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
 
 	checkJob(job);
 	boolean wasSetWaitingForOk = isWaitForOKafterEachLine();
-  try (PrintStream ps = new LinefeedPrintStream(fileOutputStream))
+  try (PrintStream ps = new LinefeedPrintStream(new BufferedOutputStream(fileOutputStream), false, StandardCharsets.US_ASCII))
   {
     this.out = ps;
     setWaitForOKafterEachLine( false );
     writeJobCode(job, new ProgressListenerDummy());
+    checkOutput();
   } finally {
     setWaitForOKafterEachLine(wasSetWaitingForOk);
   }
@@ -913,6 +1060,22 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
     // getTravel_speed() and getMax_speed() are in mm/min, estimateJobDuration(...) uses mm/s.
     return estimateJobDuration(job, getTravel_speed() / 60, getTravel_speed() / 60, getMax_speed() / 60, 0, getMax_speed() / 60, 0, getMax_speed() / 60);
   }
+
+  /**
+   * Estimated time for a focus change (G0 Z move), in seconds
+   */
+  private static final double FOCUS_CHANGE_SECONDS = 1;
+
+  @Override
+  public TravelCostModel getTravelCostModel() {
+    // Like estimateJobDuration(), acceleration is neglected because it is not configured.
+    // Property changes are sent inline with the next move, so only focus changes cost time.
+    if (getTravel_speed() <= 0)
+    {
+      return super.getTravelCostModel();
+    }
+    return new MachineTimeCostModel(getTravel_speed() / 60, getTravel_speed() / 60, 0, 0, 0, FOCUS_CHANGE_SECONDS);
+  }
     
 
   private List<Double> resolutions;
@@ -31,6 +31,7 @@ import de.thomas_oster.liblasercut.RasterizableJobPart;
 import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
 import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
 import purejavacomm.CommPort;
 import purejavacomm.CommPortIdentifier;
@@ -79,6 +80,10 @@ public class GoldCutHPGL extends LaserCutter {
   private List<Double> resolutions;
   protected double bedWidth = 630;
   protected double hwDPI = 1016.; // see Wikipedia: one HPGL "pixel" is 25µm, i.e. 1016 per inch
+  /**
+   * Reused for PU and PD commands
+   */
+  private final AsciiBuffer lineBuffer = new AsciiBuffer();
 
   @Override
   public String getModelName() {
@@ -201,7 +206,7 @@ public class GoldCutHPGL extends LaserCutter {
     // Note: standard HPGL coordinates are: (0,0)=top-left, Y=right, X=down.
     hw_x = (int)(hw_scale * (isFlipXaxis() ? Util.mm2px(this.bedWidth, resolution) - y : y));
     hw_y = (int)(hw_scale * (isFlipYaxis() ?  Util.mm2px(getBedHeight(), resolution) - x : x));
-    out.printf(Locale.US, command + "%d,%d;", hw_x, hw_y);
+    lineBuffer.clear().append(command).append(hw_x).append(',').append(hw_y).append(';').writeTo(out);
   }
 
   private byte[] generateInitializationCode() throws UnsupportedEncodingException {
@@ -18,13 +18,21 @@
  */
 package de.thomas_oster.liblasercut.drivers;
 
+import de.thomas_oster.liblasercut.LaserJob;
 import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements a driver for Grbl based firmwares.
@@ -56,6 +64,8 @@ public class Grbl extends GenericGcodeDriver
   }
   
   protected static final String SETTING_AUTO_HOME = "Automatically home laser cutter";
+  protected static final String SETTING_CHARACTER_COUNTING = "Character counting streaming";
+  protected static final String SETTING_RX_BUFFER_SIZE = "Receive buffer size (bytes)";
   
   @Override
   public String[] getPropertyKeys()
@@ -69,6 +79,8 @@ public class Grbl extends GenericGcodeDriver
     result.remove(GenericGcodeDriver.SETTING_TRAVEL_SPEED);
     result.remove(GenericGcodeDriver.SETTING_LINEEND);
     result.add(SETTING_AUTO_HOME);
+    result.add(SETTING_CHARACTER_COUNTING);
+    result.add(SETTING_RX_BUFFER_SIZE);
     return result.toArray(new String[0]);
   }
   
@@ -77,6 +89,12 @@ public class Grbl extends GenericGcodeDriver
     if (SETTING_AUTO_HOME.equals(attribute)) {
       return this.getAutoHome();
     }
+    else if (SETTING_CHARACTER_COUNTING.equals(attribute)) {
+      return this.isCharacterCounting();
+    }
+    else if (SETTING_RX_BUFFER_SIZE.equals(attribute)) {
+      return this.getRxBufferSize();
+    }
     else {
       return super.getProperty(attribute);
     }
@@ -87,6 +105,12 @@ public class Grbl extends GenericGcodeDriver
     if (SETTING_AUTO_HOME.equals(attribute)) {
       this.setAutoHome((Boolean) value);
     }
+    else if (SETTING_CHARACTER_COUNTING.equals(attribute)) {
+      this.setCharacterCounting((Boolean) value);
+    }
+    else if (SETTING_RX_BUFFER_SIZE.equals(attribute)) {
+      this.setRxBufferSize((Integer) value);
+    }
     else {
       super.setProperty(attribute, value);
     }
@@ -104,6 +128,37 @@ public class Grbl extends GenericGcodeDriver
     this.autoHome = auto_home;
   }
 
+  protected boolean characterCounting = true;
+
+  /**
+   * Send lines ahead as long as they fit into Grbl's receive buffer,
+   * instead of waiting for the "ok" of every line
+   */
+  public boolean isCharacterCounting()
+  {
+    return characterCounting;
+  }
+
+  public void setCharacterCounting(boolean characterCounting)
+  {
+    this.characterCounting = characterCounting;
+  }
+
+  /**
+   * Grbl's serial receive buffer has 128 bytes, one is kept free
+   */
+  protected int rxBufferSize = 127;
+
+  public int getRxBufferSize()
+  {
+    return rxBufferSize;
+  }
+
+  public void setRxBufferSize(int rxBufferSize)
+  {
+    this.rxBufferSize = rxBufferSize;
+  }
+
 
   @Override
   public String getModelName()
@@ -133,6 +188,7 @@ public class Grbl extends GenericGcodeDriver
     // send reset character to Grbl to get it to print out its welcome message
     pl.taskChanged(this, "Sending soft reset");
     out.write(0x18);
+    out.flush();
     
     String error = super.waitForIdentificationLine(pl);
     if (error != null) return error;
@@ -179,22 +235,294 @@ public class Grbl extends GenericGcodeDriver
   }
   
   /**
-   * Send a line of gcode to the cutter, stripping out any whitespace in the process
+   * Format a line of gcode, stripping out any whitespace in the process
+   */
+  @Override
+  protected AsciiBuffer formatLine(String text, Object... parameters)
+  {
+    return super.formatLine(text.replace(" ", ""), parameters);
+  }
+
+  /**
+   * A line that has been sent but not acknowledged yet
+   */
+  private static final class SentLine
+  {
+
+    final int number;
+    final int length;
+    final String text;
+
+    SentLine(int number, int length, String text)
+    {
+      this.number = number;
+      this.length = length;
+      this.text = text;
+    }
+  }
+
+  /**
+   * Lines in Grbl's receive buffer, oldest first. Grbl answers every line
+   * in order, so each answer belongs to the oldest line.
+   */
+  private final ArrayDeque<SentLine> inFlight = new ArrayDeque<>();
+  private int bytesInFlight = 0;
+  private int linesSent = 0;
+  /**
+   * answers read by the reader thread, null if not streaming
+   */
+  private BlockingQueue<String> responses = null;
+  private volatile IOException readerError = null;
+  /**
+   * guards expectedAnswers and stopReader. The reader thread only reads
+   * while answers are outstanding. If it is still blocked in a read when
+   * disconnecting (e.g. after an abort), closing the connection ends it.
+   */
+  private final Object readerLock = new Object();
+  private int expectedAnswers = 0;
+  private boolean stopReader = false;
+  private Thread readerThread = null;
+  private static final long READER_STOP_MILLIS = 1000;
+
+  /**
+   * Character counting streaming: instead of waiting for the "ok" of each
+   * line, send as many lines as fit into Grbl's receive buffer. A reader
+   * thread collects the answers, which are matched to the sent lines in
+   * order.
    */
   @Override
   protected void sendLine(String text, Object... parameters) throws IOException
   {
-    out.format(FORMAT_LOCALE, text.replace(" ", "")+LINEEND(), parameters);
-    // System.out.println(String.format(FORMAT_LOCALE, "> "+text+LINEEND(), parameters));
+    if (!isWaitForOKafterEachLine() || !isCharacterCounting())
+    {
+      super.sendLine(text, parameters);
+      return;
+    }
+    if (responses == null)
+    {
+      startReader();
+    }
+    AsciiBuffer line = formatLine(text, parameters);
+    int length = line.length();
+    // a line longer than the buffer can only be sent when the buffer is empty
+    while (!inFlight.isEmpty() && bytesInFlight + length > getRxBufferSize())
+    {
+      handleResponse(nextResponse());
+    }
+    String lineText = line.toString();
+    line.writeTo(out);
     out.flush();
-    if (isWaitForOKafterEachLine())
+    inFlight.add(new SentLine(++linesSent, length, lineText));
+    bytesInFlight += length;
+    synchronized (readerLock)
+    {
+      expectedAnswers++;
+      readerLock.notifyAll();
+    }
+    // report errors as early as possible
+    for (String response = responses.poll(); response != null; response = responses.poll())
+    {
+      handleResponse(response);
+    }
+  }
+
+  private void startReader()
+  {
+    BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    BufferedReader reader = in;
+    responses = queue;
+    readerError = null;
+    synchronized (readerLock)
+    {
+      expectedAnswers = 0;
+      stopReader = false;
+    }
+    Thread thread = new Thread(() ->
     {
-      String line = waitForLine();
-      if (!"ok".equals(line))
+      try
+      {
+        while (true)
+        {
+          synchronized (readerLock)
+          {
+            while (expectedAnswers == 0 && !stopReader)
+            {
+              readerLock.wait();
+            }
+            if (stopReader)
+            {
+              return;
+            }
+          }
+          String line = reader.readLine();
+          if (line == null)
+          {
+            readerError = new IOException("Connection closed by Grbl");
+            return;
+          }
+          if ("ok".equals(line) || line.startsWith("error"))
+          {
+            synchronized (readerLock)
+            {
+              expectedAnswers--;
+            }
+          }
+          else if (line.startsWith("ALARM"))
+          {
+            // Grbl drops its receive buffer, the remaining lines are never answered
+            synchronized (readerLock)
+            {
+              expectedAnswers = 0;
+            }
+          }
+          if (!line.isEmpty())
+          {
+            queue.add(line);
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        readerError = e;
+      }
+      catch (InterruptedException e)
+      {
+        readerError = new IOException("Interrupted", e);
+      }
+    }, "Grbl reader");
+    thread.setDaemon(true);
+    thread.start();
+    readerThread = thread;
+  }
+
+  private String nextResponse() throws IOException
+  {
+    try
+    {
+      while (true)
+      {
+        String response = responses.poll(100, TimeUnit.MILLISECONDS);
+        if (response != null)
+        {
+          return response;
+        }
+        if (readerError != null && responses.isEmpty())
+        {
+          throw new IOException("Lost connection while waiting for 'ok': " + readerError.getMessage(), readerError);
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for 'ok'", e);
+    }
+  }
+
+  private void handleResponse(String response) throws IOException
+  {
+    if ("ok".equals(response))
+    {
+      SentLine line = inFlight.poll();
+      if (line != null)
+      {
+        bytesInFlight -= line.length;
+      }
+    }
+    else if (response.startsWith("error"))
+    {
+      SentLine line = inFlight.poll();
+      if (line == null)
+      {
+        throw new IOException("Lasercutter responded '" + response + "'");
+      }
+      throw new IOException("Lasercutter responded '" + response + "' to line " + line.number + ": " + line.text.trim());
+    }
+    else if (response.startsWith("ALARM"))
+    {
+      throw new IOException("Lasercutter responded '" + response + "'");
+    }
+    // other messages (e.g. "[MSG:...]") are not answers to a line
+  }
+
+  /**
+   * Waits until Grbl has acknowledged all lines
+   */
+  private void waitForAllAcknowledged() throws IOException
+  {
+    while (!inFlight.isEmpty())
+    {
+      handleResponse(nextResponse());
+    }
+  }
+
+  @Override
+  public void writeJobCode(LaserJob job, ProgressListener pl) throws IOException
+  {
+    try
+    {
+      super.writeJobCode(job, pl);
+      if (responses != null)
+      {
+        waitForAllAcknowledged();
+      }
+    }
+    catch (IOException e)
+    {
+      if (responses != null)
+      {
+        softReset();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Stops Grbl after an aborted stream. Otherwise the lines in its receive
+   * buffer and planner would still be executed.
+   */
+  private void softReset()
+  {
+    synchronized (readerLock)
+    {
+      expectedAnswers = 0;
+    }
+    out.write(0x18);
+    out.flush();
+  }
+
+  @Override
+  protected void disconnect(String jobname) throws IOException, URISyntaxException
+  {
+    synchronized (readerLock)
+    {
+      stopReader = true;
+      readerLock.notifyAll();
+    }
+    if (readerThread != null)
+    {
+      try
+      {
+        readerThread.join(READER_STOP_MILLIS);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      if (readerThread.isAlive())
       {
-        throw new IOException("Lasercutter did not respond 'ok', but '"+line+"'instead.");
+        // blocked in readLine(), which holds the reader's lock, so in.close()
+        // would block too. Closing the connection ends the read.
+        readerThread.interrupt();
+        in = null;
       }
+      readerThread = null;
     }
+    responses = null;
+    inFlight.clear();
+    bytesInFlight = 0;
+    linesSent = 0;
+    super.disconnect(jobname);
   }
 
   @Override
@@ -32,6 +32,7 @@ import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
 import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -129,17 +130,20 @@ public class IModelaMill extends LaserCutter
   private int tool = 0;
   //is applied to next G command
   private String parameters = "";
+  private final AsciiBuffer lineBuffer = new AsciiBuffer();
   
   private void moveHead(PrintStream out, double depth)
   {
     if (headdepth > depth)
     {//move up fast
-      out.println(String.format(Locale.ENGLISH, "G00 Z%f%s\n", -depth, parameters));
+      lineBuffer.clear().append("G00 Z").append(-depth, 6).append(parameters).append('\n').writeTo(out);
+      out.println();
       parameters = "";
     }
     else if (headdepth < depth)
     {//move down slow
-      out.println(String.format(Locale.ENGLISH, "G01 Z%f%s\n", -depth, parameters));
+      lineBuffer.clear().append("G01 Z").append(-depth, 6).append(parameters).append('\n').writeTo(out);
+      out.println();
       parameters = "";
     }
     headdepth = depth;
@@ -150,7 +154,8 @@ public class IModelaMill extends LaserCutter
     moveHead(out, movedepth);
     //TODO: check if last command was also move and lies on the 
     //same line. If so, replace the last move command
-    out.print(String.format(Locale.ENGLISH, "G00 X%f Y%f%s\n", x, properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y, parameters));
+    lineBuffer.clear().append("G00 X").append(x, 6).append(" Y").append(properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y, 6)
+      .append(parameters).append('\n').writeTo(out);
     parameters = "";
   }
   
@@ -160,7 +165,8 @@ public class IModelaMill extends LaserCutter
     moveHead(out, linedepth);
     //TODO: check if last command was also line and lies on the 
     //same line. If so, replace the last move command
-    out.print(String.format(Locale.ENGLISH, "G01 X%f Y%f%s\n", x, properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y, parameters));
+    lineBuffer.clear().append("G01 X").append(x, 6).append(" Y").append(properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y, 6)
+      .append(parameters).append('\n').writeTo(out);
     parameters = "";
   }
   
@@ -20,6 +20,7 @@
 package de.thomas_oster.liblasercut.drivers;
 
 import de.thomas_oster.liblasercut.AbstractLaserProperty;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
 import de.thomas_oster.liblasercut.IllegalJobException;
 import de.thomas_oster.liblasercut.JobPart;
 import de.thomas_oster.liblasercut.LaserCutter;
@@ -29,6 +30,7 @@ import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.RasterBuilder;
 import de.thomas_oster.liblasercut.RasterElement;
 import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.ThrottledProgressListener;
 import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
@@ -149,7 +151,7 @@ public class K40NanoDriver extends LaserCutter
         device.move_absolute(sx, sy);
         int step_size = (int) (1000.0 / p.getDPI());
         device.setRaster_step(step_size);
-        RasterElement element = ((RasterElement.Provider) rp.getImage()).getRaster();
+        RasterElement element = rasterOf(rp);
         RasterBuilder rasterbuild = new RasterBuilder(element, (properties, pixel) -> properties.setProperty("pixel", pixel), 0, 0, 0);
         rasterbuild.setOffsetPosition(rp.getMinX(), rp.getMinY());
 
@@ -207,10 +209,12 @@ public class K40NanoDriver extends LaserCutter
         VectorPart vp = (VectorPart) p;
         int i = 0;
         int total = vp.getCommandList().length;
+        // called for every command, so only forward changes
+        ProgressListener vpl = new ThrottledProgressListener(pl, 1, 100);
         for (VectorCommand cmd : vp.getCommandList())
         {
-          pl.taskChanged(this, "Vector Part");
-          pl.progressChanged(this, (100 * i++) / total);
+          vpl.taskChanged(this, "Vector Part");
+          vpl.progressChanged(this, (100 * i++) / total);
           switch (cmd.getType())
           {
             case LINETO:
@@ -273,6 +277,37 @@ public class K40NanoDriver extends LaserCutter
     device.close();
   }
   
+  /**
+   * The image of the part as 1 bit RasterElement. Images which only
+   * provide lines (e.g. LazyBlackWhiteRaster) are copied line by line.
+   */
+  private static RasterElement rasterOf(RasterPart rp)
+  {
+    GreyscaleRaster image = rp.getImage();
+    if (image instanceof RasterElement.Provider)
+    {
+      return ((RasterElement.Provider) image).getRaster();
+    }
+    RasterElement element = new RasterElement(rp.getRasterWidth(), rp.getRasterHeight(), 1, 1);
+    if (image instanceof RasterElement.LineProvider)
+    {
+      byte[] line = new byte[element.getStride()];
+      for (int y = 0; y < element.getHeight(); y++)
+      {
+        element.setRasterLine(y, ((RasterElement.LineProvider) image).getRasterLine(y, line));
+      }
+      return element;
+    }
+    for (int y = 0; y < element.getHeight(); y++)
+    {
+      for (int x = 0; x < element.getWidth(); x++)
+      {
+        element.setPixel(x, y, rp.isBlack(x, y) ? 1 : 0);
+      }
+    }
+    return element;
+  }
+
   @Override
   public void saveJob(OutputStream fileOutputStream, LaserJob job) throws UnsupportedOperationException, IllegalJobException, Exception
   {
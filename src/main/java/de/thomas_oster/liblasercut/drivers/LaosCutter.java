@@ -32,6 +32,7 @@ import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
 import org.apache.commons.net.tftp.TFTP;
 import org.apache.commons.net.tftp.TFTPClient;
 
@@ -336,9 +337,17 @@ public class LaosCutter extends LaserCutter
     return result.toByteArray();
   }
 
+  /**
+   * Reused for move and line commands
+   */
+  private final AsciiBuffer lineBuffer = new AsciiBuffer();
+
   private void move(PrintStream out, double x, double y, double resolution)
   {
-    out.printf("0 %d %d\n", px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution));
+    lineBuffer.clear().append("0 ")
+      .append(px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution)).append(' ')
+      .append(px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution)).append('\n')
+      .writeTo(out);
   }
 
   private void loadBitmapLine(PrintStream out, List<Long> dwords)
@@ -443,7 +452,10 @@ public class LaosCutter extends LaserCutter
 
   private void line(PrintStream out, double x, double y, double resolution)
   {
-    out.printf("1 %d %d\n", px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution));
+    lineBuffer.clear().append("1 ")
+      .append(px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution)).append(' ')
+      .append(px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution)).append('\n')
+      .writeTo(out);
   }
 
   /**
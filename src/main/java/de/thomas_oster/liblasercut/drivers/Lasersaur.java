@@ -28,6 +28,7 @@ import de.thomas_oster.liblasercut.RasterizableJobPart;
 import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
 import purejavacomm.CommPort;
 import purejavacomm.CommPortIdentifier;
 import purejavacomm.SerialPort;
@@ -200,12 +201,16 @@ public class Lasersaur extends LaserCutter {
     }
   }
 
+  private final AsciiBuffer lineBuffer = new AsciiBuffer();
+
   private void move(PrintStream out, double x, double y, double resolution) {
-    out.printf(Locale.US, "G0 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+    lineBuffer.clear().append("G0 X").append(Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), 6)
+      .append(" Y").append(Util.px2mm(y, resolution), 6).append('\n').writeTo(out);
   }
 
   private void line(PrintStream out, double x, double y, double resolution) {
-    out.printf(Locale.US, "G1 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+    lineBuffer.clear().append("G1 X").append(Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), 6)
+      .append(" Y").append(Util.px2mm(y, resolution), 6).append('\n').writeTo(out);
   }
 
   private byte[] generateInitializationCode() throws UnsupportedEncodingException {
@@ -25,6 +25,7 @@ package de.thomas_oster.liblasercut.drivers;
 
 import de.thomas_oster.liblasercut.*;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
@@ -37,7 +38,6 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
 import purejavacomm.CommPortIdentifier;
 import purejavacomm.NoSuchPortException;
 import purejavacomm.PortInUseException;
@@ -219,14 +219,16 @@ public class MakeBlockXYPlotter extends LaserCutter
     }
   }
   
+  private final AsciiBuffer lineBuffer = new AsciiBuffer();
+
   private void move(double x, double y, double resolution) throws Exception{
     toolOff();
-    this.sendCommand(String.format(Locale.US, "G0 X%f Y%f", Util.px2mm(x, resolution), Util.px2mm(y, resolution)));
+    this.sendCommand(lineBuffer.clear().append("G0 X").append(Util.px2mm(x, resolution), 6).append(" Y").append(Util.px2mm(y, resolution), 6).toString());
   }
 
   private void line(double x, double y, double resolution) throws Exception{
     toolOn();
-    this.sendCommand(String.format(Locale.US, "G1 X%f Y%f", Util.px2mm(x, resolution), Util.px2mm(y, resolution)));
+    this.sendCommand(lineBuffer.clear().append("G1 X").append(Util.px2mm(x, resolution), 6).append(" Y").append(Util.px2mm(y, resolution), 6).toString());
   }
   
   private void generateVectorGCode(VectorPart vp, double resolution, ProgressListener pl, int startProgress, int maxProgress) throws UnsupportedEncodingException, Exception {
@@ -0,0 +1,257 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An OutputStream which hands its data in chunks to a sender thread, so a
+ * slow port is written while the next lines are generated.
+ *
+ * The number of chunks is fixed: when all of them wait to be sent, write()
+ * blocks until the sender has written one. When the sender is idle, the
+ * buffered bytes are handed over before the chunk is full, so the port
+ * starts sending as soon as there is something to send.
+ *
+ * flush() only hands the buffered bytes to the sender, it does not wait
+ * until they are written. close() waits for all bytes and closes the
+ * target. Errors of the sender are thrown by the next call.
+ */
+final class PipelinedOutputStream extends OutputStream
+{
+
+  static final int CHUNK_SIZE = 4096;
+  static final int CHUNK_COUNT = 64;
+  /**
+   * hand over smaller chunks only when the sender is idle
+   */
+  private static final int MIN_HANDOVER = 64;
+
+  private static final class Chunk
+  {
+    final byte[] data;
+    int length = 0;
+
+    Chunk(int size)
+    {
+      data = new byte[size];
+    }
+  }
+
+  private static final Chunk END = new Chunk(0);
+
+  private final OutputStream target;
+  private final BlockingQueue<Chunk> free;
+  private final BlockingQueue<Chunk> filled;
+  private final Thread sender;
+  private Chunk current = null;
+  private volatile boolean sending = false;
+  private volatile IOException error = null;
+  private boolean closed = false;
+
+  PipelinedOutputStream(OutputStream target)
+  {
+    this(target, CHUNK_SIZE, CHUNK_COUNT);
+  }
+
+  PipelinedOutputStream(OutputStream target, int chunkSize, int chunkCount)
+  {
+    this.target = target;
+    free = new ArrayBlockingQueue<>(chunkCount);
+    filled = new ArrayBlockingQueue<>(chunkCount + 1);
+    for (int i = 0; i < chunkCount; i++)
+    {
+      free.add(new Chunk(chunkSize));
+    }
+    sender = new Thread(this::send, "G-code sender");
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  private void send()
+  {
+    try
+    {
+      while (true)
+      {
+        Chunk chunk = filled.take();
+        if (chunk == END)
+        {
+          return;
+        }
+        sending = true;
+        // after an error the remaining chunks are dropped, so write() does not block forever
+        if (error == null)
+        {
+          try
+          {
+            target.write(chunk.data, 0, chunk.length);
+            if (filled.isEmpty())
+            {
+              target.flush();
+            }
+          }
+          catch (IOException e)
+          {
+            error = e;
+          }
+        }
+        chunk.length = 0;
+        sending = false;
+        free.add(chunk);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      error = new InterruptedIOException("Sender interrupted");
+    }
+  }
+
+  /**
+   * @return the error of the sender thread, null if there was none
+   */
+  IOException getError()
+  {
+    return error;
+  }
+
+  private void checkError() throws IOException
+  {
+    if (error != null)
+    {
+      throw new IOException("Sending failed: " + error.getMessage(), error);
+    }
+  }
+
+  private boolean senderIdle()
+  {
+    return !sending && filled.isEmpty();
+  }
+
+  private void handOver() throws IOException
+  {
+    try
+    {
+      filled.put(current);
+      current = null;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sending");
+    }
+  }
+
+  private Chunk chunk() throws IOException
+  {
+    checkError();
+    if (closed)
+    {
+      throw new IOException("Stream closed");
+    }
+    if (current == null)
+    {
+      try
+      {
+        current = free.take();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while sending");
+      }
+    }
+    return current;
+  }
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    Chunk chunk = chunk();
+    chunk.data[chunk.length++] = (byte) b;
+    if (chunk.length == chunk.data.length || (chunk.length >= MIN_HANDOVER && senderIdle()))
+    {
+      handOver();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    while (len > 0)
+    {
+      Chunk chunk = chunk();
+      int n = Math.min(len, chunk.data.length - chunk.length);
+      System.arraycopy(b, off, chunk.data, chunk.length, n);
+      chunk.length += n;
+      off += n;
+      len -= n;
+      if (chunk.length == chunk.data.length)
+      {
+        handOver();
+      }
+    }
+    if (current != null && current.length >= MIN_HANDOVER && senderIdle())
+    {
+      handOver();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    checkError();
+    if (current != null && current.length > 0)
+    {
+      handOver();
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      closed = true;
+      try
+      {
+        filled.put(END);
+        sender.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      target.close();
+    }
+    checkError();
+  }
+}
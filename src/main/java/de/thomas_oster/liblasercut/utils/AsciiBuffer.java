@@ -0,0 +1,241 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable byte buffer for text protocols (G-code, HPGL, ...). Numbers are
+ * written directly as ASCII digits, without creating Strings or going through
+ * java.util.Formatter and its Locale handling.
+ *
+ * append(value, precision) gives the same result as
+ * String.format(Locale.US, "%." + precision + "f", value).
+ */
+public final class AsciiBuffer
+{
+
+  private static final long[] POWERS_OF_TEN = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+  };
+  /**
+   * scaled values up to this are exact integers in a double
+   */
+  private static final double MAX_FAST_SCALED = 1L << 52;
+
+  private byte[] bytes;
+  private int length = 0;
+
+  public AsciiBuffer()
+  {
+    this(256);
+  }
+
+  public AsciiBuffer(int capacity)
+  {
+    bytes = new byte[Math.max(16, capacity)];
+  }
+
+  public int length()
+  {
+    return length;
+  }
+
+  public AsciiBuffer clear()
+  {
+    length = 0;
+    return this;
+  }
+
+  private void ensureCapacity(int additional)
+  {
+    if (length + additional > bytes.length)
+    {
+      bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + additional));
+    }
+  }
+
+  /**
+   * Characters outside of ASCII are written as '?'
+   */
+  public AsciiBuffer append(char c)
+  {
+    ensureCapacity(1);
+    bytes[length++] = (byte) (c < 128 ? c : '?');
+    return this;
+  }
+
+  /**
+   * Characters outside of ASCII are written as '?'
+   */
+  public AsciiBuffer append(CharSequence s)
+  {
+    int n = s.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++)
+    {
+      char c = s.charAt(i);
+      bytes[length++] = (byte) (c < 128 ? c : '?');
+    }
+    return this;
+  }
+
+  public AsciiBuffer append(long value)
+  {
+    if (value == Long.MIN_VALUE)
+    {
+      return append(Long.toString(value));
+    }
+    if (value < 0)
+    {
+      append('-');
+      value = -value;
+    }
+    appendDigits(value, 1);
+    return this;
+  }
+
+  /**
+   * Writes at least minDigits digits of a non-negative value,
+   * padded with leading zeros
+   */
+  private void appendDigits(long value, int minDigits)
+  {
+    int digits = 1;
+    for (long v = value / 10; v > 0; v /= 10)
+    {
+      digits++;
+    }
+    digits = Math.max(digits, minDigits);
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--)
+    {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  /**
+   * Like %f with the given precision: the shortest decimal representation
+   * of the value (see Double.toString()), rounded half up
+   */
+  public AsciiBuffer append(double value, int precision)
+  {
+    return append(value, precision, false);
+  }
+
+  /**
+   * @param stripTrailingZeros remove zeros at the end of the fraction, and
+   * the decimal point if nothing is left of it (e.g. "1.5" instead of
+   * "1.500000", "0" instead of "-0.000000")
+   */
+  public AsciiBuffer append(double value, int precision, boolean stripTrailingZeros)
+  {
+    if (Double.isNaN(value) || Double.isInfinite(value))
+    {
+      return append(Double.toString(value));
+    }
+    int start = length;
+    boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+    if (negative)
+    {
+      append('-');
+    }
+    double abs = Math.abs(value);
+    int digitsStart = length;
+    if (!appendFixedFast(abs, precision))
+    {
+      append(new BigDecimal(Double.toString(abs)).setScale(precision, RoundingMode.HALF_UP).toPlainString());
+    }
+    if (stripTrailingZeros && precision > 0)
+    {
+      while (bytes[length - 1] == '0')
+      {
+        length--;
+      }
+      if (bytes[length - 1] == '.')
+      {
+        length--;
+      }
+      if (negative && length == digitsStart + 1 && bytes[digitsStart] == '0')
+      {
+        // no "-0"
+        System.arraycopy(bytes, digitsStart, bytes, start, 1);
+        length = start + 1;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Rounds with integer arithmetic if the result can't depend on the
+   * difference between the binary value and its shortest decimal
+   * representation, i.e. if it is not (nearly) exactly between two results
+   * @return false if the caller has to round exactly
+   */
+  private boolean appendFixedFast(double abs, int precision)
+  {
+    if (precision < 0 || precision >= POWERS_OF_TEN.length)
+    {
+      return false;
+    }
+    long scale = POWERS_OF_TEN[precision];
+    double scaled = abs * scale;
+    if (!(scaled < MAX_FAST_SCALED))
+    {
+      return false;
+    }
+    double floor = Math.floor(scaled);
+    if (Math.abs(scaled - floor - 0.5) <= 4 * Math.ulp(scaled))
+    {
+      return false;
+    }
+    long rounded = (long) floor + (scaled - floor > 0.5 ? 1 : 0);
+    appendDigits(rounded / scale, 1);
+    if (precision > 0)
+    {
+      append('.');
+      appendDigits(rounded % scale, precision);
+    }
+    return true;
+  }
+
+  public void writeTo(OutputStream out) throws IOException
+  {
+    out.write(bytes, 0, length);
+  }
+
+  public void writeTo(PrintStream out)
+  {
+    out.write(bytes, 0, length);
+  }
+
+  @Override
+  public String toString()
+  {
+    return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+  }
+}
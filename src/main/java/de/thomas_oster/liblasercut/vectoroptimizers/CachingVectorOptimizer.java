@@ -0,0 +1,496 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.platform.Util;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers the order of the last run, so that sending a slightly changed
+ * design again does not need a full optimization.
+ *
+ * Paths are identified by their (quantized) points and property. Paths which
+ * were already in the last run keep their order and direction. New or changed
+ * paths are inserted where they add the least travel, between paths near
+ * their start or end point. If more than maxChangedFraction of the paths are
+ * new, the inner optimizer orders everything again.
+ *
+ * Only use this with ordering optimizers which keep all paths (e.g.
+ * NearestVectorOptimizer, TwoOptVectorOptimizer), sort() throws an
+ * IllegalArgumentException if the inner optimizer adds, removes or replaces
+ * paths. Inserted paths minimize the travel cost model of the inner
+ * optimizer. If the inner optimizer cuts inner paths first
+ * (InnerFirstVectorOptimizer or TwoOptVectorOptimizer with innerFirst), it
+ * orders everything again whenever a path was added, because an inserted
+ * hole could otherwise be cut after its outer contour.
+ */
+public class CachingVectorOptimizer extends VectorOptimizer
+{
+
+  public static final double DEFAULT_MAX_CHANGED_FRACTION = 0.2;
+  /**
+   * points closer than this (in dots) are considered equal
+   */
+  private static final double QUANTUM = 1e-3;
+  /**
+   * number of neighbouring end points whose gaps are tried for an insertion
+   */
+  private static final int NEIGHBOURS = 8;
+
+  /**
+   * A path of the last run, in the order of the result
+   */
+  private static final class CachedPath
+  {
+
+    final Key key;
+    /**
+     * the result was cut in the opposite direction of the input
+     */
+    final boolean inverted;
+
+    CachedPath(Key key, boolean inverted)
+    {
+      this.key = key;
+      this.inverted = inverted;
+    }
+  }
+
+  private static final class Key
+  {
+
+    final long[] points;
+    final LaserProperty prop;
+    final int hash;
+
+    Key(Element e)
+    {
+      points = new long[2 * e.size()];
+      for (int i = 0; i < e.size(); i++)
+      {
+        points[2 * i] = Math.round(e.getX(i) / QUANTUM);
+        points[2 * i + 1] = Math.round(e.getY(i) / QUANTUM);
+      }
+      prop = e.prop;
+      hash = 31 * Arrays.hashCode(points) + Objects.hashCode(prop);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Key))
+      {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && Arrays.equals(points, other.points) && Objects.equals(prop, other.prop);
+    }
+  }
+
+  private final VectorOptimizer inner;
+  private final double maxChangedFraction;
+  private final TravelCostModel costModel;
+  private final boolean innerFirst;
+  private List<CachedPath> cache = null;
+  private int lastInserted = -1;
+
+  public CachingVectorOptimizer(VectorOptimizer inner)
+  {
+    this(inner, DEFAULT_MAX_CHANGED_FRACTION);
+  }
+
+  /**
+   * @param inner optimizer used for the first run and whenever too much
+   * has changed
+   * @param maxChangedFraction maximum fraction of new paths that are
+   * inserted into the cached order
+   */
+  public CachingVectorOptimizer(VectorOptimizer inner, double maxChangedFraction)
+  {
+    this.inner = inner;
+    this.maxChangedFraction = maxChangedFraction;
+    this.costModel = costModelOf(inner);
+    this.innerFirst = ordersInnerFirst(inner);
+  }
+
+  /**
+   * Whether the given optimizer (or one of its stages) cuts inner paths first
+   */
+  private static boolean ordersInnerFirst(VectorOptimizer o)
+  {
+    if (o instanceof InnerFirstVectorOptimizer)
+    {
+      return true;
+    }
+    if (o instanceof TwoOptVectorOptimizer)
+    {
+      return ((TwoOptVectorOptimizer) o).isInnerFirst();
+    }
+    if (o instanceof PartitionedVectorOptimizer)
+    {
+      return ordersInnerFirst(((PartitionedVectorOptimizer) o).getInner());
+    }
+    if (o instanceof OptimizerPipeline)
+    {
+      for (VectorOptimizer stage : ((OptimizerPipeline) o).getStages())
+      {
+        if (ordersInnerFirst(stage))
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The cost model minimized by the ordering stage of the given optimizer,
+   * EUCLIDEAN if it has none
+   */
+  private static TravelCostModel costModelOf(VectorOptimizer o)
+  {
+    if (o instanceof NearestVectorOptimizer)
+    {
+      return ((NearestVectorOptimizer) o).getCostModel();
+    }
+    if (o instanceof TwoOptVectorOptimizer)
+    {
+      return ((TwoOptVectorOptimizer) o).getCostModel();
+    }
+    if (o instanceof PartitionedVectorOptimizer)
+    {
+      return costModelOf(((PartitionedVectorOptimizer) o).getInner());
+    }
+    if (o instanceof OptimizerPipeline)
+    {
+      List<VectorOptimizer> stages = ((OptimizerPipeline) o).getStages();
+      for (int i = stages.size() - 1; i >= 0; i--)
+      {
+        TravelCostModel m = costModelOf(stages.get(i));
+        if (m != TravelCostModel.EUCLIDEAN)
+        {
+          return m;
+        }
+      }
+    }
+    return TravelCostModel.EUCLIDEAN;
+  }
+
+  public VectorOptimizer getInner()
+  {
+    return inner;
+  }
+
+  public double getMaxChangedFraction()
+  {
+    return maxChangedFraction;
+  }
+
+  public TravelCostModel getCostModel()
+  {
+    return costModel;
+  }
+
+  /**
+   * @return number of paths inserted into the cached order by the last
+   * run, -1 if the inner optimizer ordered all paths
+   */
+  public synchronized int getLastInserted()
+  {
+    return lastInserted;
+  }
+
+  /**
+   * Forget the last run
+   */
+  public synchronized void clear()
+  {
+    cache = null;
+    lastInserted = -1;
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected synchronized List<Element> sort(List<Element> e, double dpi)
+  {
+    Map<Element, Key> keys = new IdentityHashMap<>();
+    Map<Element, Boolean> wasInverted = new IdentityHashMap<>();
+    for (Element el : e)
+    {
+      keys.put(el, new Key(el));
+      wasInverted.put(el, el.isInverted());
+    }
+    List<Element> result = cache == null ? null : reuse(e, keys, dpi);
+    if (result == null)
+    {
+      result = inner.sort(e, dpi);
+      lastInserted = -1;
+    }
+    List<CachedPath> order = new ArrayList<>(result.size());
+    for (Element el : result)
+    {
+      // remove() also catches paths returned twice
+      Boolean inverted = wasInverted.remove(el);
+      if (inverted == null)
+      {
+        throw notReordered();
+      }
+      order.add(new CachedPath(keys.get(el), el.isInverted() != inverted));
+    }
+    if (!wasInverted.isEmpty())
+    {
+      throw notReordered();
+    }
+    cache = order;
+    return result;
+  }
+
+  private IllegalArgumentException notReordered()
+  {
+    return new IllegalArgumentException("CachingVectorOptimizer needs an inner optimizer which only reorders the paths, but "
+      + inner.getClass().getSimpleName() + " added, removed or replaced paths");
+  }
+
+  /**
+   * @return the cached order with the new paths inserted, null if too many
+   * paths are new, none is left, or paths were added to an inner first order
+   */
+  private List<Element> reuse(List<Element> e, Map<Element, Key> keys, double dpi)
+  {
+    Map<Key, ArrayDeque<Integer>> positions = new HashMap<>();
+    for (int i = 0; i < cache.size(); i++)
+    {
+      positions.computeIfAbsent(cache.get(i).key, k -> new ArrayDeque<>()).add(i);
+    }
+    Element[] matched = new Element[cache.size()];
+    List<Element> added = new ArrayList<>();
+    for (Element el : e)
+    {
+      ArrayDeque<Integer> p = positions.get(keys.get(el));
+      if (p == null || p.isEmpty())
+      {
+        added.add(el);
+      }
+      else
+      {
+        matched[p.poll()] = el;
+      }
+    }
+    // removing paths keeps an inner first order valid, adding may not
+    if (added.size() > maxChangedFraction * e.size() || (innerFirst && !added.isEmpty()))
+    {
+      return null;
+    }
+    List<Element> kept = new ArrayList<>(e.size() - added.size());
+    for (int i = 0; i < matched.length; i++)
+    {
+      if (matched[i] != null)
+      {
+        if (cache.get(i).inverted)
+        {
+          matched[i].invert();
+        }
+        kept.add(matched[i]);
+      }
+    }
+    if (kept.isEmpty())
+    {
+      return null;
+    }
+    lastInserted = added.size();
+    return insert(kept, added, dpi);
+  }
+
+  /**
+   * Cheapest insertion of the added paths into the gaps of the kept order.
+   * Only gaps next to kept paths with an end point near the added path are
+   * considered, and added paths are only inserted between kept paths.
+   */
+  private List<Element> insert(List<Element> kept, List<Element> added, double dpi)
+  {
+    double mmPerDot = Util.px2mm(1, dpi);
+    int n = kept.size();
+    double[] x = new double[2 * n];
+    double[] y = new double[2 * n];
+    for (int i = 0; i < n; i++)
+    {
+      Element el = kept.get(i);
+      x[2 * i] = el.getX(0);
+      y[2 * i] = el.getY(0);
+      x[2 * i + 1] = el.getX(el.size() - 1);
+      y[2 * i + 1] = el.getY(el.size() - 1);
+    }
+    KdTree tree = new KdTree(x, y);
+    // gap g is before kept path g, gap n after the last one
+    List<List<Element>> gaps = new ArrayList<>(n + 1);
+    for (int g = 0; g <= n; g++)
+    {
+      gaps.add(null);
+    }
+    for (Element el : added)
+    {
+      int bestGap = n;
+      boolean bestInverted = false;
+      double bestCost = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < 2; i++)
+      {
+        double px = i == 0 ? el.getX(0) : el.getX(el.size() - 1);
+        double py = i == 0 ? el.getY(0) : el.getY(el.size() - 1);
+        for (int point : tree.nearest(px, py, NEIGHBOURS))
+        {
+          int path = point / 2;
+          for (int g = path; g <= path + 1; g++)
+          {
+            for (int inverted = 0; inverted < 2; inverted++)
+            {
+              if (inverted == 1 && el.isClosedPath())
+              {
+                continue;
+              }
+              double c = insertionCost(kept, x, y, g, el, inverted == 1, mmPerDot);
+              if (c < bestCost || (c == bestCost && g < bestGap))
+              {
+                bestGap = g;
+                bestInverted = inverted == 1;
+                bestCost = c;
+              }
+            }
+          }
+        }
+      }
+      if (bestInverted)
+      {
+        el.invert();
+      }
+      if (gaps.get(bestGap) == null)
+      {
+        gaps.set(bestGap, new ArrayList<>());
+      }
+      gaps.get(bestGap).add(el);
+    }
+    List<Element> result = new ArrayList<>(n + added.size());
+    for (int g = 0; g <= n; g++)
+    {
+      List<Element> gap = gaps.get(g);
+      if (gap != null)
+      {
+        Element previous = g > 0 ? kept.get(g - 1) : null;
+        result.addAll(nearestChain(previous, gap, dpi));
+      }
+      if (g < n)
+      {
+        result.add(kept.get(g));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Orders the paths inserted into the same gap by nearest neighbour,
+   * starting with the one nearest to the end of the previous path
+   */
+  private List<Element> nearestChain(Element previous, List<Element> gap, double dpi)
+  {
+    if (gap.size() == 1)
+    {
+      return gap;
+    }
+    if (previous != null)
+    {
+      double px = previous.getX(previous.size() - 1);
+      double py = previous.getY(previous.size() - 1);
+      double mmPerDot = Util.px2mm(1, dpi);
+      int first = 0;
+      double firstDistance = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < gap.size(); i++)
+      {
+        Element next = gap.get(i);
+        double d = travelCost(px, py, previous.prop, next.getX(0), next.getY(0), next.prop, mmPerDot);
+        if (d < firstDistance)
+        {
+          first = i;
+          firstDistance = d;
+        }
+      }
+      gap.add(0, gap.remove(first));
+    }
+    return new NearestVectorOptimizer(costModel).sort(gap, dpi);
+  }
+
+  /**
+   * Cost of the move from (fx, fy) to (tx, ty) in dots, including the
+   * property change
+   */
+  private double travelCost(double fx, double fy, LaserProperty from, double tx, double ty, LaserProperty to, double mmPerDot)
+  {
+    if (costModel == TravelCostModel.EUCLIDEAN)
+    {
+      return Math.hypot(tx - fx, ty - fy);
+    }
+    return costModel.moveCost((tx - fx) * mmPerDot, (ty - fy) * mmPerDot) + costModel.switchCost(from, to);
+  }
+
+  /**
+   * Additional travel if el is cut in gap. Point 2*i / 2*i+1 is the start /
+   * end of kept path i.
+   */
+  private double insertionCost(List<Element> kept, double[] x, double[] y, int gap, Element el, boolean inverted, double mmPerDot)
+  {
+    int n = kept.size();
+    double sx = inverted ? el.getX(el.size() - 1) : el.getX(0);
+    double sy = inverted ? el.getY(el.size() - 1) : el.getY(0);
+    double ex = inverted ? el.getX(0) : el.getX(el.size() - 1);
+    double ey = inverted ? el.getY(0) : el.getY(el.size() - 1);
+    double result = 0;
+    int end = 2 * (gap - 1) + 1;
+    int start = 2 * gap;
+    if (gap > 0)
+    {
+      result += travelCost(x[end], y[end], kept.get(gap - 1).prop, sx, sy, el.prop, mmPerDot);
+    }
+    if (gap < n)
+    {
+      result += travelCost(ex, ey, el.prop, x[start], y[start], kept.get(gap).prop, mmPerDot);
+    }
+    if (gap > 0 && gap < n)
+    {
+      result -= travelCost(x[end], y[end], kept.get(gap - 1).prop, x[start], y[start], kept.get(gap).prop, mmPerDot);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.platform.Rectangle;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Which Elements lie inside which closed paths.
+ *
+ * An Element is inside a closed path if more of the Element's points (corners
+ * and centers of segments) are inside the polygon than outside. Points on the
+ * border are not counted. Using "more" instead of "all" makes this robust
+ * against small rounding errors, e.g. a hole which is slightly outside the
+ * outline it belongs to.
+ * A closed path is never inside a path with a smaller or equal area.
+ *
+ * Candidates are found with a uniform grid over the bounding boxes of the
+ * closed paths, so only paths near an Element are tested.
+ */
+final class ContainmentTree
+{
+
+  /**
+   * maximum number of points of an Element tested against a polygon
+   */
+  private static final int SAMPLES = 16;
+  /**
+   * points nearer than this (relative to the polygon size) to the border
+   * are considered on the border
+   */
+  private static final double BORDER_TOLERANCE = 1e-9;
+  private static final int MAX_GRID_SIZE = 256;
+
+  private static final int[] NONE = new int[0];
+
+  private final int[][] containers;
+  private final int[] parent;
+
+  /**
+   * @param elements Elements; their boundingBox() is used and cached
+   */
+  ContainmentTree(List<Element> elements)
+  {
+    int n = elements.size();
+    Element[] el = elements.toArray(new Element[0]);
+    containers = new int[n][];
+    parent = new int[n];
+    double[] area = new double[n];
+    int[] closed = new int[n];
+    int closedCount = 0;
+    double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+    double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++)
+    {
+      parent[i] = -1;
+      containers[i] = NONE;
+      Rectangle bb = el[i].boundingBox();
+      x0 = Math.min(x0, bb.getXMin());
+      y0 = Math.min(y0, bb.getYMin());
+      x1 = Math.max(x1, bb.getXMax());
+      y1 = Math.max(y1, bb.getYMax());
+      // a polygon needs at least three corners
+      if (el[i].isClosedPath() && el[i].size() >= 4)
+      {
+        area[i] = area(el[i]);
+        closed[closedCount++] = i;
+      }
+    }
+    if (closedCount == 0)
+    {
+      return;
+    }
+
+    // grid cells, each listing the closed paths whose bounding box overlaps it
+    int grid = Math.max(1, Math.min(MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(closedCount))));
+    double cellWidth = Math.max(x1 - x0, Double.MIN_NORMAL) / grid;
+    double cellHeight = Math.max(y1 - y0, Double.MIN_NORMAL) / grid;
+    int[] cellStart = new int[grid * grid + 1];
+    for (int pass = 0; pass < 2; pass++)
+    {
+      int[] fill = pass == 0 ? null : cellStart.clone();
+      int[] cellContent = pass == 0 ? null : new int[cellStart[grid * grid]];
+      for (int c = 0; c < closedCount; c++)
+      {
+        Rectangle bb = el[closed[c]].boundingBox();
+        int cx0 = cell(bb.getXMin(), x0, cellWidth, grid);
+        int cx1 = cell(bb.getXMax(), x0, cellWidth, grid);
+        int cy0 = cell(bb.getYMin(), y0, cellHeight, grid);
+        int cy1 = cell(bb.getYMax(), y0, cellHeight, grid);
+        for (int cy = cy0; cy <= cy1; cy++)
+        {
+          for (int cx = cx0; cx <= cx1; cx++)
+          {
+            if (pass == 0)
+            {
+              cellStart[cx + grid * cy + 1]++;
+            }
+            else
+            {
+              cellContent[fill[cx + grid * cy]++] = closed[c];
+            }
+          }
+        }
+      }
+      if (pass == 0)
+      {
+        for (int i = 0; i < grid * grid; i++)
+        {
+          cellStart[i + 1] += cellStart[i];
+        }
+      }
+      else
+      {
+        findContainers(el, area, cellStart, cellContent, x0, y0, cellWidth, cellHeight, grid);
+      }
+    }
+  }
+
+  private void findContainers(Element[] el, double[] area, int[] cellStart, int[] cellContent,
+    double x0, double y0, double cellWidth, double cellHeight, int grid)
+  {
+    for (int i = 0; i < el.length; i++)
+    {
+      Rectangle bb = el[i].boundingBox();
+      double centerX = (bb.getXMin() + bb.getXMax()) / 2;
+      double centerY = (bb.getYMin() + bb.getYMax()) / 2;
+      // only paths around the center of the bounding box can contain most of the points
+      int cellIndex = cell(centerX, x0, cellWidth, grid) + grid * cell(centerY, y0, cellHeight, grid);
+      Point[] samples = null;
+      int found = 0;
+      for (int k = cellStart[cellIndex]; k < cellStart[cellIndex + 1]; k++)
+      {
+        int c = cellContent[k];
+        Rectangle cb = el[c].boundingBox();
+        if (c == i || centerX < cb.getXMin() || centerX > cb.getXMax() || centerY < cb.getYMin() || centerY > cb.getYMax()
+          || (area[i] > 0 && area[c] <= area[i]))
+        {
+          continue;
+        }
+        if (samples == null)
+        {
+          samples = samples(el[i]);
+        }
+        int votes = 0;
+        for (Point p : samples)
+        {
+          votes += contains(el[c], p);
+        }
+        if (votes > 0)
+        {
+          if (found == containers[i].length)
+          {
+            containers[i] = Arrays.copyOf(containers[i], Math.max(4, 2 * found));
+          }
+          containers[i][found++] = c;
+          if (parent[i] == -1 || area[c] < area[parent[i]])
+          {
+            parent[i] = c;
+          }
+        }
+      }
+      if (found < containers[i].length)
+      {
+        containers[i] = Arrays.copyOf(containers[i], found);
+      }
+    }
+  }
+
+  private static int cell(double v, double min, double size, int grid)
+  {
+    return Math.max(0, Math.min(grid - 1, (int) ((v - min) / size)));
+  }
+
+  /**
+   * Evenly distributed corners and segment centers of the Element
+   */
+  private static Point[] samples(Element e)
+  {
+    // candidate 2*i is point i, candidate 2*i+1 the center of segment i
+    int count = 2 * e.size() - 1;
+    Point[] result = new Point[Math.min(SAMPLES, count)];
+    for (int s = 0; s < result.length; s++)
+    {
+      int i = (int) ((long) s * count / result.length);
+      if (i % 2 == 0)
+      {
+        result[s] = e.getPoint(i / 2);
+      }
+      else
+      {
+        int a = i / 2;
+        result[s] = new Point((e.getX(a) + e.getX(a + 1)) / 2, (e.getY(a) + e.getY(a + 1)) / 2);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Point in polygon test (crossing number)
+   * @return 1 if p is inside, -1 if outside, 0 if on the border
+   */
+  private static int contains(Element polygon, Point p)
+  {
+    Rectangle bb = polygon.boundingBox();
+    double tolerance = BORDER_TOLERANCE * Math.max(bb.getXMax() - bb.getXMin(), bb.getYMax() - bb.getYMin());
+    boolean inside = false;
+    for (int i = 1; i < polygon.size(); i++)
+    {
+      Point a = polygon.getPoint(i - 1);
+      Point b = polygon.getPoint(i);
+      double dx = b.x - a.x;
+      double dy = b.y - a.y;
+      double length = Math.sqrt(dx * dx + dy * dy);
+      if (Math.abs(dx * (p.y - a.y) - dy * (p.x - a.x)) <= tolerance * length
+        && p.x >= Math.min(a.x, b.x) - tolerance && p.x <= Math.max(a.x, b.x) + tolerance
+        && p.y >= Math.min(a.y, b.y) - tolerance && p.y <= Math.max(a.y, b.y) + tolerance)
+      {
+        return 0;
+      }
+      if ((a.y > p.y) != (b.y > p.y)
+        && p.x < a.x + (p.y - a.y) * dx / dy)
+      {
+        inside = !inside;
+      }
+    }
+    return inside ? 1 : -1;
+  }
+
+  /**
+   * Absolute area of a closed path (shoelace formula)
+   */
+  private static double area(Element polygon)
+  {
+    double sum = 0;
+    for (int i = 1; i < polygon.size(); i++)
+    {
+      sum += polygon.getX(i - 1) * polygon.getY(i) - polygon.getX(i) * polygon.getY(i - 1);
+    }
+    return Math.abs(sum) / 2;
+  }
+
+  /**
+   * @return number of closed paths containing element i
+   */
+  int getDepth(int i)
+  {
+    return containers[i].length;
+  }
+
+  /**
+   * @return indices of all closed paths containing element i. Do not modify!
+   */
+  int[] getContainers(int i)
+  {
+    return containers[i];
+  }
+
+  /**
+   * @return index of the smallest closed path containing element i, or -1
+   */
+  int getParent(int i)
+  {
+    return parent[i];
+  }
+}
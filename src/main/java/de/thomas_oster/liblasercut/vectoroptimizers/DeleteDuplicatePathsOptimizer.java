@@ -18,53 +18,244 @@
  */
 package de.thomas_oster.liblasercut.vectoroptimizers;
 
-import java.util.LinkedList;
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.platform.Util;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
- * This VectorOptimizer removes all duplicate (identical) Elements
+ * This VectorOptimizer removes all duplicate Elements
  * and sorts the remaining (unique) elements with a NearestVectorOptimizer
+ * (unless disabled, e.g. because an OptimizerPipeline sorts them later)
+ *
+ * Two Elements are duplicates if they have the same property and the same
+ * number of points, and each point is within the tolerance (in x and y) of
+ * the corresponding point of the other one, no matter in which direction
+ * they are drawn and, for closed paths, at which point they start.
+ * Of each group of duplicates, the first one is kept.
+ *
+ * Paths are put into buckets by the corner of their bounding box, so each
+ * path is only compared point by point to the paths in the neighbouring
+ * buckets.
  * @author René Bohne
  */
 public class DeleteDuplicatePathsOptimizer extends VectorOptimizer
 {
 
+  public static final double DEFAULT_TOLERANCE_MM = 0.01;
+
+  private final double toleranceMm;
+  private final boolean sortNearest;
+
+  public DeleteDuplicatePathsOptimizer()
+  {
+    this(DEFAULT_TOLERANCE_MM);
+  }
+
+  /**
+   * @param toleranceMm maximum distance (in x and y) of corresponding
+   * points. 0 only removes exact duplicates.
+   */
+  public DeleteDuplicatePathsOptimizer(double toleranceMm)
+  {
+    this(toleranceMm, true);
+  }
+
+  /**
+   * @param toleranceMm maximum distance (in x and y) of corresponding
+   * points. 0 only removes exact duplicates.
+   * @param sortNearest sort the remaining paths with a NearestVectorOptimizer.
+   * If false, their order is kept.
+   */
+  public DeleteDuplicatePathsOptimizer(double toleranceMm, boolean sortNearest)
+  {
+    this.toleranceMm = toleranceMm;
+    this.sortNearest = sortNearest;
+  }
+
+  public double getToleranceMm()
+  {
+    return toleranceMm;
+  }
+
+  public boolean isSortNearest()
+  {
+    return sortNearest;
+  }
+
   @Override
   protected List<Element> sort(List<Element> e)
   {
-    List<Element> result = new LinkedList<>();
-    if (e.isEmpty())
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    double tolerance = Util.mm2px(toleranceMm, dpi);
+    List<Element> unique = new ArrayList<>(e.size());
+    Map<Cell, List<Element>> buckets = new HashMap<>();
+    for (Element el : e)
     {
-      return result;
+      Cell cell = cell(el, tolerance);
+      if (!hasDuplicateIn(el, cell, buckets, tolerance))
+      {
+        unique.add(el);
+        buckets.computeIfAbsent(cell, k -> new ArrayList<>()).add(el);
+      }
+    }
+
+    if (!sortNearest)
+    {
+      return unique;
     }
-    
-    List<Element> doubleEntries = new LinkedList<>();
-    
-    for(int i=0;i<e.size();i++)
+    NearestVectorOptimizer vo = new NearestVectorOptimizer();
+    return vo.sort(unique, dpi);
+  }
+
+  private static boolean hasDuplicateIn(Element el, Cell cell, Map<Cell, List<Element>> buckets, double tolerance)
+  {
+    // the corners of duplicates are at most one cell apart
+    int probe = tolerance > 0 ? 1 : 0;
+    for (int dx = -probe; dx <= probe; dx++)
     {
-      for(int j=0;j<e.size();j++)
+      for (int dy = -probe; dy <= probe; dy++)
       {
-        if(i!=j)
+        List<Element> bucket = buckets.get(new Cell(cell.prop, cell.x + dx, cell.y + dy));
+        if (bucket == null)
+        {
+          continue;
+        }
+        for (Element other : bucket)
         {
-         if(e.get(i).equals(e.get(j)))
-         {
-           if(!doubleEntries.contains(e.get(j)))
-           {
-            doubleEntries.add(e.get(i));
-           }
-         }
+          if (isDuplicate(el, other, tolerance))
+          {
+            return true;
+          }
         }
       }
     }
-    
-    for(Element doubleEntry : doubleEntries)
+    return false;
+  }
+
+  /**
+   * Bucket of the lower left corner of the bounding box. Cells are as large
+   * as the tolerance.
+   */
+  private static Cell cell(Element e, double tolerance)
+  {
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < e.size(); i++)
     {
-      e.remove(doubleEntry);
+      minX = Math.min(minX, e.getX(i));
+      minY = Math.min(minY, e.getY(i));
+    }
+    return new Cell(e.prop, cellIndex(minX, tolerance), cellIndex(minY, tolerance));
+  }
+
+  private static long cellIndex(double v, double tolerance)
+  {
+    if (tolerance > 0)
+    {
+      return (long) Math.floor(v / tolerance);
+    }
+    // + 0.0 turns -0.0 into 0.0
+    return Double.doubleToLongBits(v + 0.0);
+  }
+
+  private static boolean near(Element a, int i, Element b, int j, double tolerance)
+  {
+    return Math.abs(a.getX(i) - b.getX(j)) <= tolerance && Math.abs(a.getY(i) - b.getY(j)) <= tolerance;
+  }
+
+  private static boolean isClosed(Element e, double tolerance)
+  {
+    return e.size() > 2 && near(e, 0, e, e.size() - 1, tolerance);
+  }
+
+  /**
+   * Whether every point of a is within the tolerance of the corresponding
+   * point of b, in the same or the reverse direction, or for closed paths
+   * starting at any point
+   */
+  static boolean isDuplicate(Element a, Element b, double tolerance)
+  {
+    int n = a.size();
+    if (n != b.size() || !Objects.equals(a.prop, b.prop))
+    {
+      return false;
+    }
+    if (matches(a, b, 0, 1, n, n, tolerance) || matches(a, b, n - 1, -1, n, n, tolerance))
+    {
+      return true;
+    }
+    if (!isClosed(a, tolerance) || !isClosed(b, tolerance))
+    {
+      return false;
+    }
+    // the last point repeats the first one
+    int ring = n - 1;
+    for (int start = 1; start < ring; start++)
+    {
+      if (near(a, 0, b, start, tolerance)
+        && (matches(a, b, start, 1, ring, ring, tolerance) || matches(a, b, start, -1, ring, ring, tolerance)))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares the first length points of a with the points of b starting at
+   * start in the given direction, wrapping around at count
+   */
+  private static boolean matches(Element a, Element b, int start, int direction, int count, int length, double tolerance)
+  {
+    for (int i = 0; i < length; i++)
+    {
+      if (!near(a, i, b, Math.floorMod(start + direction * i, count), tolerance))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Cell
+  {
+
+    private final LaserProperty prop;
+    private final long x;
+    private final long y;
+
+    Cell(LaserProperty prop, long x, long y)
+    {
+      this.prop = prop;
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (31 * Objects.hashCode(prop) + Long.hashCode(x)) + Long.hashCode(y);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Cell))
+      {
+        return false;
+      }
+      Cell other = (Cell) o;
+      return x == other.x && y == other.y && Objects.equals(prop, other.prop);
     }
-    
-    NearestVectorOptimizer vo = new NearestVectorOptimizer();
-    result = vo.sort(e);
-    
-    return result;
   }
 }
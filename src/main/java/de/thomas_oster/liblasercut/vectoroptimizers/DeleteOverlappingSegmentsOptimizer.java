@@ -0,0 +1,373 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.platform.Util;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This VectorOptimizer removes line segments (or parts of them) which lie on
+ * top of an earlier segment with the same property, e.g. the shared edges of
+ * tiled shapes. Paths are split where a part in the middle is removed.
+ * The order of the paths is not changed.
+ *
+ * All segments processed so far are kept in a uniform grid, so every segment
+ * is only compared to the segments near it.
+ */
+public class DeleteOverlappingSegmentsOptimizer extends VectorOptimizer
+{
+
+  public static final double DEFAULT_TOLERANCE_MM = 0.01;
+
+  private final double toleranceMm;
+
+  public DeleteOverlappingSegmentsOptimizer()
+  {
+    this(DEFAULT_TOLERANCE_MM);
+  }
+
+  /**
+   * @param toleranceMm segments closer than this are considered to overlap.
+   * Remaining pieces shorter than this are removed as well.
+   */
+  public DeleteOverlappingSegmentsOptimizer(double toleranceMm)
+  {
+    this.toleranceMm = toleranceMm;
+  }
+
+  public double getToleranceMm()
+  {
+    return toleranceMm;
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    return deleteOverlaps(e, Util.mm2px(toleranceMm, dpi));
+  }
+
+  static List<Element> deleteOverlaps(List<Element> e, double tolerance)
+  {
+    Map<LaserProperty, List<Integer>> groups = new LinkedHashMap<>();
+    for (int i = 0; i < e.size(); i++)
+    {
+      groups.computeIfAbsent(e.get(i).prop, k -> new ArrayList<>()).add(i);
+    }
+    List<List<Element>> pieces = new ArrayList<>(Collections.nCopies(e.size(), null));
+    for (List<Integer> group : groups.values())
+    {
+      double length = 0;
+      int segments = 0;
+      for (int i : group)
+      {
+        length += e.get(i).length();
+        segments += e.get(i).size() - 1;
+      }
+      SegmentGrid grid = new SegmentGrid(segments == 0 ? 1 : length / segments, tolerance);
+      for (int i : group)
+      {
+        pieces.set(i, deleteOverlaps(e.get(i), grid));
+      }
+    }
+    List<Element> result = new ArrayList<>(e.size());
+    for (List<Element> p : pieces)
+    {
+      result.addAll(p);
+    }
+    return result;
+  }
+
+  /**
+   * Remove the parts of all segments of the path which overlap segments
+   * in the grid, then add the segments to the grid.
+   * @return the remaining pieces of the path
+   */
+  private static List<Element> deleteOverlaps(Element path, SegmentGrid grid)
+  {
+    List<Element> result = new ArrayList<>();
+    Element current = null;
+    boolean modified = false;
+    for (int i = 1; i < path.size(); i++)
+    {
+      double px = path.getX(i - 1);
+      double py = path.getY(i - 1);
+      double qx = path.getX(i);
+      double qy = path.getY(i);
+      double[] uncovered = grid.uncovered(px, py, qx, qy);
+      if (uncovered.length != 2 || uncovered[0] != 0 || uncovered[1] != 1)
+      {
+        modified = true;
+      }
+      for (int k = 0; k < uncovered.length; k += 2)
+      {
+        if (current == null || uncovered[k] != 0)
+        {
+          // the path was interrupted
+          current = new Element(path.prop, px + uncovered[k] * (qx - px), py + uncovered[k] * (qy - py));
+          result.add(current);
+        }
+        if (uncovered[k + 1] == 1)
+        {
+          current.addPoint(qx, qy);
+        }
+        else
+        {
+          current.addPoint(px + uncovered[k + 1] * (qx - px), py + uncovered[k + 1] * (qy - py));
+          current = null;
+        }
+      }
+      if (uncovered.length == 0)
+      {
+        current = null;
+      }
+      grid.add(px, py, qx, qy);
+    }
+    return modified ? result : Collections.singletonList(path);
+  }
+
+  /**
+   * Uniform grid over line segments. Every segment is registered in all cells
+   * within the tolerance of it.
+   */
+  private static final class SegmentGrid
+  {
+
+    final double tolerance;
+    final double cellSize;
+    /**
+     * segment i goes from (coordinates[4i], coordinates[4i+1])
+     * to (coordinates[4i+2], coordinates[4i+3])
+     */
+    double[] coordinates = new double[64];
+    int count = 0;
+    final Map<Long, int[]> cells = new HashMap<>();
+    /**
+     * stamp[i] == query if segment i was already visited by the current query
+     */
+    int[] stamp = new int[16];
+    int query = 0;
+
+    SegmentGrid(double averageLength, double tolerance)
+    {
+      this.tolerance = tolerance;
+      // tolerance <= cellSize / 4 is required by cellsNear()
+      this.cellSize = Math.max(Math.max(averageLength, 4 * tolerance), 1e-9);
+    }
+
+    /**
+     * Keys of the cells near the segment (may contain duplicates)
+     */
+    private long[] cellsNear(double px, double py, double qx, double qy)
+    {
+      // sample the segment every cellSize/2. Every point of the segment
+      // is within cellSize/4 of a sample, so a square of
+      // +- (cellSize/4 + tolerance) <= cellSize/2 around every sample
+      // covers the neighbourhood and touches at most 2x2 cells.
+      int steps = (int) Math.ceil(Math.hypot(qx - px, qy - py) / (cellSize / 2));
+      double r = cellSize / 4 + tolerance;
+      long[] result = new long[4 * (steps + 1)];
+      int c = 0;
+      for (int s = 0; s <= steps; s++)
+      {
+        double t = steps == 0 ? 0 : (double) s / steps;
+        double x = px + t * (qx - px);
+        double y = py + t * (qy - py);
+        long x0 = (long) Math.floor((x - r) / cellSize);
+        long x1 = (long) Math.floor((x + r) / cellSize);
+        long y0 = (long) Math.floor((y - r) / cellSize);
+        long y1 = (long) Math.floor((y + r) / cellSize);
+        for (long cx = x0; cx <= x1; cx++)
+        {
+          for (long cy = y0; cy <= y1; cy++)
+          {
+            result[c++] = (cx << 32) ^ (cy & 0xffffffffL);
+          }
+        }
+      }
+      return Arrays.copyOf(result, c);
+    }
+
+    void add(double px, double py, double qx, double qy)
+    {
+      if (4 * count + 4 > coordinates.length)
+      {
+        coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+      }
+      int id = count++;
+      coordinates[4 * id] = px;
+      coordinates[4 * id + 1] = py;
+      coordinates[4 * id + 2] = qx;
+      coordinates[4 * id + 3] = qy;
+      for (long key : cellsNear(px, py, qx, qy))
+      {
+        // cell: [size, id, id, ...]
+        int[] cell = cells.get(key);
+        if (cell == null)
+        {
+          cell = new int[5];
+        }
+        else if (cell[cell[0]] == id)
+        {
+          // already registered
+          continue;
+        }
+        else if (cell[0] + 1 == cell.length)
+        {
+          cell = Arrays.copyOf(cell, 2 * cell.length);
+        }
+        cell[++cell[0]] = id;
+        cells.put(key, cell);
+      }
+    }
+
+    /**
+     * Parts of the segment p-q which do not overlap any segment in the grid.
+     * @return sorted list of intervals [start0, end0, start1, end1, ...]
+     * as parameters on the segment (0 = p, 1 = q)
+     */
+    double[] uncovered(double px, double py, double qx, double qy)
+    {
+      double length = Math.hypot(qx - px, qy - py);
+      if (length <= tolerance)
+      {
+        return new double[]{0, 1};
+      }
+      if (stamp.length < count)
+      {
+        stamp = Arrays.copyOf(stamp, Math.max(count, 2 * stamp.length));
+      }
+      query++;
+      List<double[]> covered = new ArrayList<>();
+      for (long key : cellsNear(px, py, qx, qy))
+      {
+        int[] cell = cells.get(key);
+        if (cell == null)
+        {
+          continue;
+        }
+        for (int k = 1; k <= cell[0]; k++)
+        {
+          int id = cell[k];
+          if (stamp[id] == query)
+          {
+            continue;
+          }
+          stamp[id] = query;
+          double[] overlap = overlap(px, py, qx, qy, id);
+          if (overlap != null && (overlap[1] - overlap[0]) * length > tolerance)
+          {
+            covered.add(overlap);
+          }
+        }
+      }
+      if (covered.isEmpty())
+      {
+        return new double[]{0, 1};
+      }
+      covered.sort((a, b) -> Double.compare(a[0], b[0]));
+      double[] result = new double[2 * covered.size() + 2];
+      int c = 0;
+      double from = 0;
+      for (double[] interval : covered)
+      {
+        if (interval[0] > from)
+        {
+          result[c++] = from;
+          result[c++] = interval[0];
+        }
+        from = Math.max(from, interval[1]);
+      }
+      if (from < 1)
+      {
+        result[c++] = from;
+        result[c++] = 1;
+      }
+      // drop remaining pieces shorter than the tolerance
+      int d = 0;
+      for (int k = 0; k < c; k += 2)
+      {
+        if ((result[k + 1] - result[k]) * length > tolerance)
+        {
+          result[d++] = result[k];
+          result[d++] = result[k + 1];
+        }
+      }
+      return Arrays.copyOf(result, d);
+    }
+
+    /**
+     * The part of segment p-q lying on segment id (within the tolerance)
+     * @return [start, end] as parameters on p-q, or null
+     */
+    private double[] overlap(double px, double py, double qx, double qy, int id)
+    {
+      double ax = coordinates[4 * id];
+      double ay = coordinates[4 * id + 1];
+      double dx = coordinates[4 * id + 2] - ax;
+      double dy = coordinates[4 * id + 3] - ay;
+      double lengthSq = dx * dx + dy * dy;
+      if (lengthSq == 0)
+      {
+        return null;
+      }
+      // parameters of p and q projected onto a-b
+      double tp = ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+      double tq = ((qx - ax) * dx + (qy - ay) * dy) / lengthSq;
+      if (tp == tq)
+      {
+        return null;
+      }
+      double lo = Math.max(0, Math.min(tp, tq));
+      double hi = Math.min(1, Math.max(tp, tq));
+      if (lo >= hi)
+      {
+        return null;
+      }
+      // corresponding parameters on p-q
+      double s0 = (lo - tp) / (tq - tp);
+      double s1 = (hi - tp) / (tq - tp);
+      // the distance to the line a-b changes linearly along p-q, so checking
+      // both ends of the overlap is enough
+      double length = Math.sqrt(lengthSq);
+      for (double s : new double[]{s0, s1})
+      {
+        double x = px + s * (qx - px) - ax;
+        double y = py + s * (qy - py) - ay;
+        if (Math.abs(x * dy - y * dx) > tolerance * length)
+        {
+          return null;
+        }
+      }
+      return new double[]{Math.min(s0, s1), Math.max(s0, s1)};
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+
+/**
+ * A TravelCostModel applied to the start and end points of Elements.
+ * Point 2*i is the start and point 2*i+1 the end of elements[i], coordinates
+ * are in dots.
+ */
+final class EndpointCosts
+{
+
+  /**
+   * number of neighbours fetched from the KdTree in the first round
+   */
+  private static final int FIRST_NEIGHBOURS = 8;
+  /**
+   * at most this many neighbours are compared. With a high switch cost the
+   * cheapest point can be far away, and searching for it would make each
+   * step scan most of the tree.
+   */
+  private static final int MAX_NEIGHBOURS = 64;
+
+  private final TravelCostModel model;
+  private final double mmPerDot;
+  private final Element[] elements;
+  private final double[] x;
+  private final double[] y;
+
+  EndpointCosts(TravelCostModel model, double dpi, Element[] elements, double[] x, double[] y)
+  {
+    this.model = model;
+    this.mmPerDot = Util.px2mm(1, dpi);
+    this.elements = elements;
+    this.x = x;
+    this.y = y;
+  }
+
+  boolean isEuclidean()
+  {
+    return model == TravelCostModel.EUCLIDEAN;
+  }
+
+  /**
+   * Cost of going from point a to point b (symmetric)
+   */
+  double cost(int a, int b)
+  {
+    if (isEuclidean())
+    {
+      double dx = x[a] - x[b];
+      double dy = y[a] - y[b];
+      return Math.sqrt(dx * dx + dy * dy);
+    }
+    return model.moveCost((x[a] - x[b]) * mmPerDot, (y[a] - y[b]) * mmPerDot)
+      + model.switchCost(elements[a / 2].prop, elements[b / 2].prop);
+  }
+
+  /**
+   * The not removed point of the tree which is cheapest to reach from
+   * (px, py) with the given property, the smallest index on ties.
+   * Only the MAX_NEIGHBOURS nearest points are considered.
+   * @return -1 if all points are removed
+   */
+  int cheapest(KdTree tree, double px, double py, LaserProperty prop)
+  {
+    if (isEuclidean())
+    {
+      return tree.nearest(px, py);
+    }
+    int k = FIRST_NEIGHBOURS;
+    while (true)
+    {
+      int[] candidates = tree.nearest(px, py, k);
+      int best = -1;
+      double bestCost = Double.POSITIVE_INFINITY;
+      for (int p : candidates)
+      {
+        double c = model.moveCost((x[p] - px) * mmPerDot, (y[p] - py) * mmPerDot)
+          + model.switchCost(prop, elements[p / 2].prop);
+        if (c < bestCost || (c == bestCost && p < best))
+        {
+          best = p;
+          bestCost = c;
+        }
+      }
+      if (candidates.length < k)
+      {
+        // all points have been looked at
+        return best;
+      }
+      // all other points are at least as far away as the last candidate
+      double farthest = tree.distance(candidates[k - 1], px, py) * mmPerDot;
+      if (model.minMoveCost(farthest) > bestCost || k >= MAX_NEIGHBOURS)
+      {
+        return best;
+      }
+      k = Math.min(2 * k, MAX_NEIGHBOURS);
+    }
+  }
+}
@@ -41,5 +41,11 @@ public class FileVectorOptimizer extends VectorOptimizer
   {
     return e;
   }
+
+  @Override
+  protected VectorPart build(List<Element> opt, VectorPart vp)
+  {
+    return vp;
+  }
   
 }
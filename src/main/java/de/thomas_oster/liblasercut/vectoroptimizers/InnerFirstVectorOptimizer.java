@@ -147,8 +147,12 @@ public class InnerFirstVectorOptimizer extends VectorOptimizer
       4: O: top, left, right (both have same YMax, but top has a higher YMin)
 
       TRADEOFFS AND LIMITATIONS:
-      This algorithm does not work for paths that have the same bounding-box
-      (e.g. a circle inscribed to a square)
+      This heuristic does not work for paths that have the same bounding-box
+      (e.g. a circle inscribed to a square).
+      Therefore, the result is finally sorted by the number of closed paths
+      that contain an element (see ContainmentTree), deepest first. The
+      heuristic order is kept between elements of the same depth, which
+      also covers unconnected lines.
 
       For concave polygons with the same bounding-box,
       many simple Polygon-inside-Polygon algorithms also fail
@@ -157,27 +161,31 @@ public class InnerFirstVectorOptimizer extends VectorOptimizer
       The resulting polygon is clearly outside the original, although every
       edge of it is inside the original!
 
-      FUTURE WORK:
-      It would also be nice to sort intersecting polygons, where one polygon
-      is "90% inside" and "10% outside" the other.
+      Intersecting polygons, where one polygon is "90% inside" and "10% outside"
+      the other, are counted as inside, because ContainmentTree only requires
+      most of the points to be inside.
       Real-world example:_A circular hole at the border of a rectangle.
       Due to rounding errors, it may appear slightly outside the rectangle.
       Mathematically, it is neither fully inside nor fully outside, but the
       user clearly wants it to be counted as "inside".
 
-      POSSIBLE LIBRARIES:
-      http://sourceforge.net/projects/geom-java/
-      http://sourceforge.net/projects/jts-topo-suite
-
-      USEFUL METHODS:
-      Element.isClosedPath()
+      The bounding boxes are cached in the Elements, so the comparators are cheap.
      */
     // do the work:
     ArrayList<Element> result = OptimizerUtils.joinContiguousLoopElements(e, 0.9);
+    ContainmentTree tree = new ContainmentTree(result);
+    int[] depth = new int[result.size()];
+    for (int i = 0; i < result.size(); i++)
+    {
+      result.get(i).index = i;
+      depth[i] = tree.getDepth(i);
+    }
     result.sort(new XMinComparator());
     result.sort(new YMinComparator());
     result.sort(new XMaxComparator());
     result.sort(new YMaxComparator());
+    // stable, so the order above is kept for elements with the same depth
+    result.sort(Comparator.comparingInt(el -> -depth[el.index]));
     return result;
   }
 }
@@ -0,0 +1,317 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.JobPart;
+import de.thomas_oster.liblasercut.LaserCutter;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.RasterizableJobPart;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.platform.Util;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Optimizes a whole LaserJob instead of single VectorParts.
+ *
+ * The parts are grouped into layers by a layer function. Layers are processed
+ * in ascending order; within a layer, all VectorParts with the same DPI are
+ * merged into one and optimized together, and the parts are ordered so that
+ * the head travels as little as possible from the end of one part to the
+ * start of the next one (greedy nearest neighbour by the travel cost model).
+ *
+ * By default, every part is in its own layer (keepOrder()), so the order of
+ * the job is kept and only the paths within each VectorPart are optimized.
+ * Merging parts is opt-in: RASTER_FIRST merges all VectorParts after the
+ * raster parts, SINGLE_LAYER merges and reorders everything. Only use these
+ * if e.g. marks and engravings need not be done before the cuts.
+ */
+public class JobOptimizer
+{
+
+  /**
+   * All parts in one layer: the order of the parts is free
+   */
+  public static final ToIntFunction<JobPart> SINGLE_LAYER = p -> 0;
+  /**
+   * Raster parts first, then all VectorParts in one layer
+   */
+  public static final ToIntFunction<JobPart> RASTER_FIRST = p -> p instanceof VectorPart ? 1 : 0;
+
+  private final VectorOptimizer vectorOptimizer;
+  /**
+   * null for keepOrder() of the optimized job
+   */
+  private final ToIntFunction<JobPart> layer;
+  private final TravelCostModel costModel;
+
+  /**
+   * Keeps the order of the parts and optimizes every VectorPart by itself
+   * @param vectorOptimizer used for the VectorParts
+   */
+  public JobOptimizer(VectorOptimizer vectorOptimizer)
+  {
+    this(vectorOptimizer, null);
+  }
+
+  /**
+   * @param vectorOptimizer used for the (merged) VectorParts
+   * @param layer layer number of a part. Parts of a lower layer are always
+   * executed before parts of a higher layer. null keeps the order of the job.
+   */
+  public JobOptimizer(VectorOptimizer vectorOptimizer, ToIntFunction<JobPart> layer)
+  {
+    this(vectorOptimizer, layer, TravelCostModel.EUCLIDEAN);
+  }
+
+  /**
+   * @param vectorOptimizer used for the (merged) VectorParts
+   * @param layer layer number of a part. Parts of a lower layer are always
+   * executed before parts of a higher layer. null keeps the order of the job.
+   * @param costModel used to order the parts
+   */
+  public JobOptimizer(VectorOptimizer vectorOptimizer, ToIntFunction<JobPart> layer, TravelCostModel costModel)
+  {
+    this.vectorOptimizer = vectorOptimizer;
+    this.layer = layer;
+    this.costModel = costModel;
+  }
+
+  /**
+   * Keeps the order of the parts, and optimizes every VectorPart with the
+   * preset pipeline of the strategy and the travel cost model of the cutter.
+   * @see LaserCutter#getTravelCostModel()
+   */
+  public JobOptimizer(VectorOptimizer.OrderStrategy s, LaserCutter cutter)
+  {
+    this(s, cutter, null);
+  }
+
+  /**
+   * Optimizes the VectorParts with the preset pipeline of the strategy and
+   * orders paths and parts by the travel cost model of the cutter.
+   * @param layer layer number of a part, null keeps the order of the job
+   * @see LaserCutter#getTravelCostModel()
+   */
+  public JobOptimizer(VectorOptimizer.OrderStrategy s, LaserCutter cutter, ToIntFunction<JobPart> layer)
+  {
+    this(OptimizerPipeline.preset(s, cutter), layer, cutter.getTravelCostModel());
+  }
+
+  /**
+   * Layer function which puts every part of the job into its own layer, so
+   * the order of the parts is kept and every VectorPart is optimized by itself.
+   */
+  public static ToIntFunction<JobPart> keepOrder(LaserJob job)
+  {
+    return keepOrder(job.getParts());
+  }
+
+  private static ToIntFunction<JobPart> keepOrder(List<JobPart> parts)
+  {
+    Map<JobPart, Integer> index = new IdentityHashMap<>();
+    for (JobPart p : parts)
+    {
+      index.put(p, index.size());
+    }
+    return p -> index.getOrDefault(p, index.size());
+  }
+
+  /**
+   * Replaces the parts of the job with the merged, optimized and reordered
+   * parts.
+   */
+  public void optimize(LaserJob job)
+  {
+    List<JobPart> parts = new ArrayList<>(job.getParts());
+    List<JobPart> result = optimize(parts);
+    for (JobPart p : parts)
+    {
+      job.removePart(p);
+    }
+    for (JobPart p : result)
+    {
+      job.addPart(p);
+    }
+  }
+
+  List<JobPart> optimize(List<JobPart> parts)
+  {
+    ToIntFunction<JobPart> layerOf = layer != null ? layer : keepOrder(parts);
+    Map<Integer, List<JobPart>> layers = new TreeMap<>();
+    for (JobPart p : parts)
+    {
+      layers.computeIfAbsent(layerOf.applyAsInt(p), k -> new ArrayList<>()).add(p);
+    }
+    List<JobPart> result = new ArrayList<>(parts.size());
+    // current position of the head in mm
+    double[] position = new double[]{0, 0};
+    for (List<JobPart> l : layers.values())
+    {
+      result.addAll(orderNearest(mergeAndOptimize(l), position));
+    }
+    return result;
+  }
+
+  /**
+   * Merge the VectorParts with the same DPI and optimize them
+   */
+  private List<JobPart> mergeAndOptimize(List<JobPart> parts)
+  {
+    Map<Double, List<VectorPart>> byDpi = new LinkedHashMap<>();
+    List<JobPart> result = new ArrayList<>();
+    for (JobPart p : parts)
+    {
+      if (p instanceof VectorPart)
+      {
+        byDpi.computeIfAbsent(p.getDPI(), k -> new ArrayList<>()).add((VectorPart) p);
+      }
+      else
+      {
+        result.add(p);
+      }
+    }
+    for (List<VectorPart> vectorParts : byDpi.values())
+    {
+      VectorPart merged = vectorParts.get(0);
+      if (vectorParts.size() > 1)
+      {
+        // don't modify the parts of the job, copy into a new one
+        merged = new VectorPart(merged.getCurrentCuttingProperty(), merged.getDPI());
+        for (VectorPart vp : vectorParts)
+        {
+          append(merged, vp);
+        }
+      }
+      result.add(vectorOptimizer.optimize(merged));
+    }
+    return result;
+  }
+
+  private static void append(VectorPart target, VectorPart source)
+  {
+    for (VectorCommand cmd : source.getCommandList())
+    {
+      switch (cmd.getType())
+      {
+        case SETPROPERTY:
+          target.setProperty(cmd.getProperty());
+          break;
+        case MOVETO:
+          target.moveto(cmd.getX(), cmd.getY());
+          break;
+        case LINETO:
+          target.lineto(cmd.getX(), cmd.getY());
+          break;
+      }
+    }
+  }
+
+  /**
+   * Greedy nearest neighbour order of the parts.
+   * @param position current head position in mm, updated to the end of the
+   * last part
+   */
+  private List<JobPart> orderNearest(List<JobPart> parts, double[] position)
+  {
+    List<JobPart> remaining = new ArrayList<>(parts);
+    List<JobPart> result = new ArrayList<>(parts.size());
+    while (!remaining.isEmpty())
+    {
+      int best = 0;
+      double bestDistance = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < remaining.size(); i++)
+      {
+        Point start = startOf(remaining.get(i));
+        double d = start == null ? 0 : costModel.moveCost(start.x - position[0], start.y - position[1]);
+        if (d < bestDistance)
+        {
+          best = i;
+          bestDistance = d;
+        }
+      }
+      JobPart next = remaining.remove(best);
+      result.add(next);
+      Point end = endOf(next);
+      if (end != null)
+      {
+        position[0] = end.x;
+        position[1] = end.y;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return first point of the part in mm, null if it is empty
+   */
+  static Point startOf(JobPart p)
+  {
+    if (p instanceof VectorPart)
+    {
+      for (VectorCommand cmd : ((VectorPart) p).getCommandList())
+      {
+        if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+        {
+          return toMm(cmd.getX(), cmd.getY(), p.getDPI());
+        }
+      }
+      return null;
+    }
+    if (p instanceof RasterizableJobPart)
+    {
+      Point start = ((RasterizableJobPart) p).getRasterStart();
+      return toMm(start.x, start.y, p.getDPI());
+    }
+    return toMm(p.getMinX(), p.getMinY(), p.getDPI());
+  }
+
+  /**
+   * @return last point of the part in mm (approximated by the lower left
+   * corner for rasters), null if it is empty
+   */
+  static Point endOf(JobPart p)
+  {
+    if (p instanceof VectorPart)
+    {
+      VectorCommand[] commands = ((VectorPart) p).getCommandList();
+      for (int i = commands.length - 1; i >= 0; i--)
+      {
+        if (commands[i].getType() != VectorCommand.CmdType.SETPROPERTY)
+        {
+          return toMm(commands[i].getX(), commands[i].getY(), p.getDPI());
+        }
+      }
+      return null;
+    }
+    return toMm(p.getMinX(), p.getMaxY(), p.getDPI());
+  }
+
+  private static Point toMm(double x, double y, double dpi)
+  {
+    return new Point(Util.px2mm(x, dpi), Util.px2mm(y, dpi));
+  }
+}
@@ -0,0 +1,375 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import java.util.Arrays;
+
+/**
+ * Static 2d tree over a set of points with support for removing points,
+ * used for nearest neighbour searches in the optimizers.
+ *
+ * Points are identified by their index in the coordinate arrays given to
+ * the constructor. If several points have the same distance, the one with
+ * the smallest index is returned, so results do not depend on the tree
+ * layout.
+ *
+ * The tree is stored implicitly: the node for the range [lo, hi) of the
+ * permutation is at index (lo + hi) / 2, its children are the ranges left
+ * and right of it.
+ */
+final class KdTree
+{
+
+  private final double[] x;
+  private final double[] y;
+  /**
+   * permutation of the point indices in tree order
+   */
+  private final int[] order;
+  /**
+   * position of each point in order[]
+   */
+  private final int[] position;
+  private final boolean[] removed;
+  /**
+   * number of not removed points below each node
+   */
+  private final int[] alive;
+  private final double[] minX;
+  private final double[] maxX;
+  private final double[] minY;
+  private final double[] maxY;
+  private int size;
+
+  // state of the current nearest() search
+  private double qx;
+  private double qy;
+  private double bestDistance;
+  private int best;
+
+  KdTree(double[] x, double[] y)
+  {
+    this.x = x;
+    this.y = y;
+    int n = x.length;
+    size = n;
+    order = new int[n];
+    for (int i = 0; i < n; i++)
+    {
+      order[i] = i;
+    }
+    position = new int[n];
+    removed = new boolean[n];
+    alive = new int[n];
+    minX = new double[n];
+    maxX = new double[n];
+    minY = new double[n];
+    maxY = new double[n];
+    build(0, n, true);
+    for (int i = 0; i < n; i++)
+    {
+      position[order[i]] = i;
+    }
+  }
+
+  private void build(int lo, int hi, boolean splitX)
+  {
+    if (lo >= hi)
+    {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    select(lo, hi - 1, mid, splitX ? x : y);
+    build(lo, mid, !splitX);
+    build(mid + 1, hi, !splitX);
+    int p = order[mid];
+    double x0 = x[p], x1 = x[p], y0 = y[p], y1 = y[p];
+    if (lo < mid)
+    {
+      int c = (lo + mid) >>> 1;
+      x0 = Math.min(x0, minX[c]);
+      x1 = Math.max(x1, maxX[c]);
+      y0 = Math.min(y0, minY[c]);
+      y1 = Math.max(y1, maxY[c]);
+    }
+    if (mid + 1 < hi)
+    {
+      int c = (mid + 1 + hi) >>> 1;
+      x0 = Math.min(x0, minX[c]);
+      x1 = Math.max(x1, maxX[c]);
+      y0 = Math.min(y0, minY[c]);
+      y1 = Math.max(y1, maxY[c]);
+    }
+    minX[mid] = x0;
+    maxX[mid] = x1;
+    minY[mid] = y0;
+    maxY[mid] = y1;
+    alive[mid] = hi - lo;
+  }
+
+  /**
+   * Partially sorts order[left..right] so that order[k] has the k-th
+   * smallest key (quickselect)
+   */
+  private void select(int left, int right, int k, double[] key)
+  {
+    while (right > left)
+    {
+      double pivot = key[order[(left + right) >>> 1]];
+      int i = left;
+      int j = right;
+      while (i <= j)
+      {
+        while (key[order[i]] < pivot)
+        {
+          i++;
+        }
+        while (key[order[j]] > pivot)
+        {
+          j--;
+        }
+        if (i <= j)
+        {
+          int tmp = order[i];
+          order[i] = order[j];
+          order[j] = tmp;
+          i++;
+          j--;
+        }
+      }
+      if (k <= j)
+      {
+        right = j;
+      }
+      else if (k >= i)
+      {
+        left = i;
+      }
+      else
+      {
+        return;
+      }
+    }
+  }
+
+  int size()
+  {
+    return size;
+  }
+
+  boolean isRemoved(int point)
+  {
+    return removed[point];
+  }
+
+  void remove(int point)
+  {
+    if (removed[point])
+    {
+      return;
+    }
+    removed[point] = true;
+    size--;
+    int pos = position[point];
+    int lo = 0;
+    int hi = order.length;
+    while (true)
+    {
+      int mid = (lo + hi) >>> 1;
+      alive[mid]--;
+      if (pos == mid)
+      {
+        return;
+      }
+      if (pos < mid)
+      {
+        hi = mid;
+      }
+      else
+      {
+        lo = mid + 1;
+      }
+    }
+  }
+
+  /**
+   * Adds a removed point again
+   */
+  void restore(int point)
+  {
+    if (!removed[point])
+    {
+      return;
+    }
+    removed[point] = false;
+    size++;
+    int pos = position[point];
+    int lo = 0;
+    int hi = order.length;
+    while (true)
+    {
+      int mid = (lo + hi) >>> 1;
+      alive[mid]++;
+      if (pos == mid)
+      {
+        return;
+      }
+      if (pos < mid)
+      {
+        hi = mid;
+      }
+      else
+      {
+        lo = mid + 1;
+      }
+    }
+  }
+
+  /**
+   * Euclidean distance, computed like Point.hypotTo()
+   */
+  double distance(int point, double px, double py)
+  {
+    double dx = x[point] - px;
+    double dy = y[point] - py;
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /**
+   * @return the not removed point nearest to (px, py), the smallest index
+   * on ties, or -1 if all points are removed
+   */
+  int nearest(double px, double py)
+  {
+    qx = px;
+    qy = py;
+    best = -1;
+    bestDistance = Double.POSITIVE_INFINITY;
+    nearest(0, order.length, true);
+    return best;
+  }
+
+  /**
+   * The k nearest not removed points, ordered by distance and index.
+   * Unlike nearest(), this may be called by several threads at once.
+   *
+   * @return up to k point indices
+   */
+  int[] nearest(double px, double py, int k)
+  {
+    int[] ids = new int[k];
+    double[] distances = new double[k];
+    int count = nearest(px, py, 0, order.length, true, ids, distances, 0);
+    return count == k ? ids : Arrays.copyOf(ids, count);
+  }
+
+  /**
+   * @return number of points in ids
+   */
+  private int nearest(double px, double py, int lo, int hi, boolean splitX, int[] ids, double[] distances, int count)
+  {
+    if (lo >= hi)
+    {
+      return count;
+    }
+    int mid = (lo + hi) >>> 1;
+    if (alive[mid] == 0)
+    {
+      return count;
+    }
+    int k = ids.length;
+    double dx = Math.max(0, Math.max(minX[mid] - px, px - maxX[mid]));
+    double dy = Math.max(0, Math.max(minY[mid] - py, py - maxY[mid]));
+    if (count == k && Math.sqrt(dx * dx + dy * dy) > distances[k - 1])
+    {
+      return count;
+    }
+    int p = order[mid];
+    if (!removed[p])
+    {
+      double d = distance(p, px, py);
+      if (count < k || d < distances[k - 1] || (d == distances[k - 1] && p < ids[k - 1]))
+      {
+        // insert into the sorted list
+        int i = count < k ? count++ : k - 1;
+        while (i > 0 && (distances[i - 1] > d || (distances[i - 1] == d && ids[i - 1] > p)))
+        {
+          distances[i] = distances[i - 1];
+          ids[i] = ids[i - 1];
+          i--;
+        }
+        distances[i] = d;
+        ids[i] = p;
+      }
+    }
+    boolean leftFirst = splitX ? px < x[p] : py < y[p];
+    if (leftFirst)
+    {
+      count = nearest(px, py, lo, mid, !splitX, ids, distances, count);
+      count = nearest(px, py, mid + 1, hi, !splitX, ids, distances, count);
+    }
+    else
+    {
+      count = nearest(px, py, mid + 1, hi, !splitX, ids, distances, count);
+      count = nearest(px, py, lo, mid, !splitX, ids, distances, count);
+    }
+    return count;
+  }
+
+  private void nearest(int lo, int hi, boolean splitX)
+  {
+    if (lo >= hi)
+    {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    if (alive[mid] == 0)
+    {
+      return;
+    }
+    double dx = Math.max(0, Math.max(minX[mid] - qx, qx - maxX[mid]));
+    double dy = Math.max(0, Math.max(minY[mid] - qy, qy - maxY[mid]));
+    // ties must still be visited, they may have a smaller index
+    if (Math.sqrt(dx * dx + dy * dy) > bestDistance)
+    {
+      return;
+    }
+    int p = order[mid];
+    if (!removed[p])
+    {
+      double d = distance(p, qx, qy);
+      if (d < bestDistance || (d == bestDistance && p < best))
+      {
+        bestDistance = d;
+        best = p;
+      }
+    }
+    boolean leftFirst = splitX ? qx < x[p] : qy < y[p];
+    if (leftFirst)
+    {
+      nearest(lo, mid, !splitX);
+      nearest(mid + 1, hi, !splitX);
+    }
+    else
+    {
+      nearest(mid + 1, hi, !splitX);
+      nearest(lo, mid, !splitX);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import java.util.Objects;
+
+/**
+ * Estimates the time (in seconds) a move takes. Both axes move at the same
+ * time, each one accelerates to its maximum speed and brakes again
+ * (trapezoidal velocity profile), so the slower axis determines the time.
+ * Changing the property takes a fixed time, and changing the focus takes
+ * additional time (e.g. for moving the Z axis).
+ */
+public class MachineTimeCostModel implements TravelCostModel
+{
+
+  private final double maxSpeedX;
+  private final double maxSpeedY;
+  private final double accelerationX;
+  private final double accelerationY;
+  private final double propertySwitchSeconds;
+  private final double focusChangeSeconds;
+
+  /**
+   * @param maxSpeedX maximum travel speed in mm/s
+   * @param maxSpeedY maximum travel speed in mm/s
+   * @param accelerationX in mm/s^2, 0 for unlimited acceleration
+   * @param accelerationY in mm/s^2, 0 for unlimited acceleration
+   * @param propertySwitchSeconds pause when the property changes
+   * @param focusChangeSeconds additional pause when the focus changes
+   */
+  public MachineTimeCostModel(double maxSpeedX, double maxSpeedY, double accelerationX, double accelerationY,
+    double propertySwitchSeconds, double focusChangeSeconds)
+  {
+    if (maxSpeedX <= 0 || maxSpeedY <= 0)
+    {
+      throw new IllegalArgumentException("Speed must be positive");
+    }
+    this.maxSpeedX = maxSpeedX;
+    this.maxSpeedY = maxSpeedY;
+    this.accelerationX = accelerationX;
+    this.accelerationY = accelerationY;
+    this.propertySwitchSeconds = propertySwitchSeconds;
+    this.focusChangeSeconds = focusChangeSeconds;
+  }
+
+  public double getMaxSpeedX()
+  {
+    return maxSpeedX;
+  }
+
+  public double getMaxSpeedY()
+  {
+    return maxSpeedY;
+  }
+
+  public double getAccelerationX()
+  {
+    return accelerationX;
+  }
+
+  public double getAccelerationY()
+  {
+    return accelerationY;
+  }
+
+  public double getPropertySwitchSeconds()
+  {
+    return propertySwitchSeconds;
+  }
+
+  public double getFocusChangeSeconds()
+  {
+    return focusChangeSeconds;
+  }
+
+  /**
+   * Time for moving one axis from standstill to standstill
+   */
+  static double axisTime(double distance, double speed, double acceleration)
+  {
+    if (acceleration <= 0)
+    {
+      return distance / speed;
+    }
+    if (distance >= speed * speed / acceleration)
+    {
+      // accelerate to full speed, cruise, brake
+      return distance / speed + speed / acceleration;
+    }
+    // triangular profile: accelerate for half the distance, then brake
+    return 2 * Math.sqrt(distance / acceleration);
+  }
+
+  @Override
+  public double moveCost(double dx, double dy)
+  {
+    return Math.max(axisTime(Math.abs(dx), maxSpeedX, accelerationX),
+      axisTime(Math.abs(dy), maxSpeedY, accelerationY));
+  }
+
+  @Override
+  public double minMoveCost(double distance)
+  {
+    // one of the axes moves at least distance/sqrt(2). It can't be faster
+    // than the faster axis.
+    double acceleration = accelerationX <= 0 || accelerationY <= 0 ? 0 : Math.max(accelerationX, accelerationY);
+    return axisTime(distance / Math.sqrt(2), Math.max(maxSpeedX, maxSpeedY), acceleration);
+  }
+
+  @Override
+  public double switchCost(LaserProperty from, LaserProperty to)
+  {
+    if (Objects.equals(from, to))
+    {
+      return 0;
+    }
+    double result = propertySwitchSeconds;
+    if (!Objects.equals(focusOf(from), focusOf(to)))
+    {
+      result += focusChangeSeconds;
+    }
+    return result;
+  }
+
+  private static Object focusOf(LaserProperty p)
+  {
+    if (p != null)
+    {
+      for (String key : p.getPropertyKeys())
+      {
+        if ("focus".equals(key))
+        {
+          return p.getProperty(key);
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "MachineTimeCostModel(speed " + maxSpeedX + "/" + maxSpeedY + " mm/s, acceleration "
+      + accelerationX + "/" + accelerationY + " mm/s^2, property switch " + propertySwitchSeconds
+      + " s, focus change " + focusChangeSeconds + " s)";
+  }
+}
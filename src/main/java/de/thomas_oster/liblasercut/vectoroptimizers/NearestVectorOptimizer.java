@@ -19,71 +19,98 @@
 package de.thomas_oster.liblasercut.vectoroptimizers;
 
 import de.thomas_oster.liblasercut.platform.Point;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Greedy nearest neighbour ordering: after each path, the path whose start
+ * or end point is nearest to the current position is cut next (inverted if
+ * its end is nearer). On ties, the path that comes first in the input wins,
+ * and its start point is preferred over its end point.
+ *
+ * The start and end points are kept in a KdTree, so finding the next path
+ * takes O(log n) instead of O(n).
+ *
+ * With a TravelCostModel other than EUCLIDEAN, the path which is cheapest
+ * to reach (e.g. fastest, including property switches) is cut next.
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
 public class NearestVectorOptimizer extends VectorOptimizer
 {
 
+  private final TravelCostModel costModel;
+
+  public NearestVectorOptimizer()
+  {
+    this(TravelCostModel.EUCLIDEAN);
+  }
+
+  public NearestVectorOptimizer(TravelCostModel costModel)
+  {
+    this.costModel = costModel;
+  }
+
+  public TravelCostModel getCostModel()
+  {
+    return costModel;
+  }
+
   @Override
   protected List<Element> sort(List<Element> e)
   {
-    List<Element> result = new LinkedList<>();
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    List<Element> result = new ArrayList<>(e.size());
     if (e.isEmpty())
     {
       return result;
     }
-
-    result.add(e.remove(0));
-    while (!e.isEmpty())
+    Element[] elements = e.toArray(new Element[0]);
+    int n = elements.length;
+    // point 2*i is the start and point 2*i+1 the end of elements[i]
+    double[] x = new double[2 * n];
+    double[] y = new double[2 * n];
+    for (int i = 0; i < n; i++)
     {
-      Point end = result.get(result.size() - 1).getEnd();
-      //find nearest element
-      int next = 0;
-      //invert element direction if endpoint is nearer
-      boolean invert = false;
-      double dst = Double.POSITIVE_INFINITY;
-      for (int i = 0; i < e.size(); i++)
-      {
-        // check distance to next startpoint
-        double nd = e.get(i).start.hypotTo(end);
-        if (nd < dst)
-        {
-          next = i;
-          dst = nd;
-          invert = false;
-        }
-        if (!e.get(i).start.equals(e.get(i).getEnd()))
-        {
-          // check distance to next endpoint
-          nd = e.get(i).getEnd().hypotTo(end);
-          if (nd < dst)
-          {
-            next = i;
-            dst = nd;
-            invert = true;
-          }
-        }
-        if (dst == 0)
-        {
-          break;
-        }
-      }
-      //add next
-      if (invert)
+      x[2 * i] = elements[i].getX(0);
+      y[2 * i] = elements[i].getY(0);
+      x[2 * i + 1] = elements[i].getX(elements[i].size() - 1);
+      y[2 * i + 1] = elements[i].getY(elements[i].size() - 1);
+    }
+    KdTree tree = new KdTree(x, y);
+    EndpointCosts costs = new EndpointCosts(costModel, dpi, elements, x, y);
+    for (int i = 0; i < n; i++)
+    {
+      if (elements[i].isClosedPath())
       {
-        Element m = e.remove(next);
-        m.invert();
-        result.add(m);
+        // closed path: can only be entered at its start
+        tree.remove(2 * i + 1);
       }
-      else
+    }
+
+    Element current = elements[0];
+    tree.remove(0);
+    tree.remove(1);
+    result.add(current);
+    while (tree.size() > 0)
+    {
+      Point end = current.getEnd();
+      int next = costs.cheapest(tree, end.x, end.y, current.prop);
+      int i = next / 2;
+      tree.remove(2 * i);
+      tree.remove(2 * i + 1);
+      current = elements[i];
+      //invert element direction if endpoint is nearer
+      if (next % 2 == 1)
       {
-        result.add(e.remove(next));
+        current.invert();
       }
+      result.add(current);
     }
     return result;
   }
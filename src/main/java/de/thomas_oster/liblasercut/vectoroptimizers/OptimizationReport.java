@@ -0,0 +1,177 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.vectoroptimizers.OptimizerPipeline.StageTiming;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Result of VectorOptimizer.optimizeWithReport(): the optimized VectorPart
+ * and some numbers about the paths before and after the optimization.
+ *
+ * All distances are in the units of the VectorPart (dots, see getDPI()).
+ * Travel starts at (0, 0).
+ */
+public class OptimizationReport
+{
+
+  /**
+   * Numbers of one list of Elements, computed in one pass
+   */
+  static class Metrics
+  {
+    final int paths;
+    final double travel;
+    final double cutLength;
+    final int propertySwitches;
+
+    Metrics(List<Element> elements)
+    {
+      double t = 0;
+      double c = 0;
+      int switches = 0;
+      double x = 0;
+      double y = 0;
+      LaserProperty prop = null;
+      for (Element e : elements)
+      {
+        t += Math.hypot(e.getX(0) - x, e.getY(0) - y);
+        c += e.length();
+        x = e.getX(e.size() - 1);
+        y = e.getY(e.size() - 1);
+        if (prop != null && !Objects.equals(prop, e.prop))
+        {
+          switches++;
+        }
+        prop = e.prop;
+      }
+      paths = elements.size();
+      travel = t;
+      cutLength = c;
+      propertySwitches = switches;
+    }
+  }
+
+  private final VectorPart result;
+  private final Metrics before;
+  private final Metrics after;
+  private final List<StageTiming> stageTimings;
+  private final long totalNanos;
+
+  OptimizationReport(VectorPart result, Metrics before, Metrics after, List<StageTiming> stageTimings, long totalNanos)
+  {
+    this.result = result;
+    this.before = before;
+    this.after = after;
+    this.stageTimings = Collections.unmodifiableList(stageTimings);
+    this.totalNanos = totalNanos;
+  }
+
+  /**
+   * @return the optimized VectorPart (same as VectorOptimizer.optimize())
+   */
+  public VectorPart getResult()
+  {
+    return result;
+  }
+
+  public double getDPI()
+  {
+    return result.getDPI();
+  }
+
+  /**
+   * @return length of all moves with the laser off, before optimization
+   */
+  public double getTravelBefore()
+  {
+    return before.travel;
+  }
+
+  /**
+   * @return length of all moves with the laser off, after optimization
+   */
+  public double getTravelAfter()
+  {
+    return after.travel;
+  }
+
+  public double getCutLengthBefore()
+  {
+    return before.cutLength;
+  }
+
+  public double getCutLengthAfter()
+  {
+    return after.cutLength;
+  }
+
+  public int getPathsBefore()
+  {
+    return before.paths;
+  }
+
+  public int getPathsAfter()
+  {
+    return after.paths;
+  }
+
+  /**
+   * @return how often the property changes between consecutive paths,
+   * before optimization
+   */
+  public int getPropertySwitchesBefore()
+  {
+    return before.propertySwitches;
+  }
+
+  public int getPropertySwitchesAfter()
+  {
+    return after.propertySwitches;
+  }
+
+  /**
+   * @return wall time of dividing the VectorPart ("divide"), of every sort
+   * stage and of building the result ("build")
+   */
+  public List<StageTiming> getStageTimings()
+  {
+    return stageTimings;
+  }
+
+  public long getTotalNanos()
+  {
+    return totalNanos;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(Locale.US,
+      "paths %d -> %d, travel %.1f -> %.1f, cut %.1f -> %.1f, property switches %d -> %d, %d ms %s",
+      before.paths, after.paths, before.travel, after.travel, before.cutLength, after.cutLength,
+      before.propertySwitches, after.propertySwitches, totalNanos / 1000000, stageTimings);
+  }
+}
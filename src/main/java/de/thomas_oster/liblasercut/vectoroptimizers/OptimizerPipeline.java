@@ -0,0 +1,207 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserCutter;
+import de.thomas_oster.liblasercut.VectorPart;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a chain of VectorOptimizers (stages) on the same list of Elements.
+ * The VectorPart is divided into Elements only once, every stage works on the
+ * result of the previous one, and the VectorPart is built only once at the end.
+ *
+ * A pipeline without stages returns the VectorPart unchanged (like
+ * FileVectorOptimizer).
+ */
+public class OptimizerPipeline extends VectorOptimizer
+{
+
+  /**
+   * Wall time of one stage of the last run
+   * @see OptimizationReport#getStageTimings()
+   */
+  public static class StageTiming
+  {
+    private final String name;
+    private final long nanos;
+
+    StageTiming(String name, long nanos)
+    {
+      this.name = name;
+      this.nanos = nanos;
+    }
+
+    /**
+     * @return class name of the stage
+     */
+    public String getName()
+    {
+      return name;
+    }
+
+    public long getNanos()
+    {
+      return nanos;
+    }
+
+    @Override
+    public String toString()
+    {
+      return name + ": " + (nanos / 1000000) + " ms";
+    }
+  }
+
+  private final List<VectorOptimizer> stages;
+  /**
+   * per thread, so runs on other threads do not mix up the timings
+   */
+  private final ThreadLocal<List<StageTiming>> lastTimings = ThreadLocal.withInitial(Collections::emptyList);
+
+  public OptimizerPipeline(VectorOptimizer... stages)
+  {
+    this(Arrays.asList(stages));
+  }
+
+  public OptimizerPipeline(List<VectorOptimizer> stages)
+  {
+    this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+  }
+
+  /**
+   * @return a new pipeline with the given stage appended
+   */
+  public OptimizerPipeline then(VectorOptimizer stage)
+  {
+    List<VectorOptimizer> s = new ArrayList<>(stages);
+    s.add(stage);
+    return new OptimizerPipeline(s);
+  }
+
+  public List<VectorOptimizer> getStages()
+  {
+    return stages;
+  }
+
+  /**
+   * @return wall time of every stage of the last run in the calling thread,
+   * in the order of the stages. Empty if the thread has not run the pipeline.
+   */
+  public List<StageTiming> getLastTimings()
+  {
+    return lastTimings.get();
+  }
+
+  /**
+   * The pipeline equivalent to the given OrderStrategy
+   */
+  public static OptimizerPipeline preset(OrderStrategy s)
+  {
+    return preset(s, TravelCostModel.EUCLIDEAN);
+  }
+
+  /**
+   * The pipeline equivalent to the given OrderStrategy, using the travel
+   * cost model of the given cutter
+   * @see LaserCutter#getTravelCostModel()
+   */
+  public static OptimizerPipeline preset(OrderStrategy s, LaserCutter cutter)
+  {
+    return preset(s, cutter.getTravelCostModel());
+  }
+
+  /**
+   * The pipeline equivalent to the given OrderStrategy, where the nearest
+   * neighbour and 2-opt orderings minimize the given travel cost
+   * @see de.thomas_oster.liblasercut.LaserCutter#getTravelCostModel()
+   */
+  public static OptimizerPipeline preset(OrderStrategy s, TravelCostModel costModel)
+  {
+    switch (s)
+    {
+      case FILE:
+        return new OptimizerPipeline();
+      case NEAREST:
+        return new OptimizerPipeline(new NearestVectorOptimizer(costModel));
+      case INNER_FIRST:
+        return new OptimizerPipeline(new InnerFirstVectorOptimizer());
+      case SMALLEST_FIRST:
+        return new OptimizerPipeline(new SmallestFirstVectorOptimizer());
+      case DELETE_DUPLICATE_PATHS:
+        return new OptimizerPipeline(
+          new DeleteDuplicatePathsOptimizer(DeleteDuplicatePathsOptimizer.DEFAULT_TOLERANCE_MM, false),
+          new NearestVectorOptimizer(costModel));
+      case NEAREST_2OPT:
+        return new OptimizerPipeline(new TwoOptVectorOptimizer(costModel));
+      case NEAREST_PARTITIONED:
+        return new OptimizerPipeline(new PartitionedVectorOptimizer(new NearestVectorOptimizer(costModel),
+          PartitionedVectorOptimizer.DEFAULT_PATHS_PER_TILE));
+    }
+    throw new IllegalArgumentException("Unknown Order Strategy: " + s);
+  }
+
+  @Override
+  public VectorPart optimize(VectorPart vp)
+  {
+    if (stages.isEmpty())
+    {
+      return vp;
+    }
+    return super.optimize(vp);
+  }
+
+  @Override
+  protected VectorPart build(List<Element> opt, VectorPart vp)
+  {
+    if (stages.isEmpty())
+    {
+      return vp;
+    }
+    return super.build(opt, vp);
+  }
+
+  @Override
+  protected List<StageTiming> getSortTimings(long sortNanos)
+  {
+    return lastTimings.get();
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    List<StageTiming> timings = new ArrayList<>(stages.size());
+    for (VectorOptimizer stage : stages)
+    {
+      long start = System.nanoTime();
+      e = stage.sort(e, dpi);
+      timings.add(new StageTiming(stage.getClass().getSimpleName(), System.nanoTime() - start));
+    }
+    lastTimings.set(Collections.unmodifiableList(timings));
+    return e;
+  }
+}
@@ -22,7 +22,9 @@ import de.thomas_oster.liblasercut.LaserProperty;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -70,212 +72,157 @@ public class OptimizerUtils
       result.addAll(pathsGroupedByClosed.getOrDefault(true, emptyList));
       elements = new ArrayList<>(pathsGroupedByClosed.getOrDefault(false, emptyList));
 
-      // create an ArrayList containing two DirectedElements for each Element
-      // with the given prop. The two DirectedElements represent the two possible
-      // directions in which the Element could be executed (inverted or not).
-      // All points that have been removed are nulled.
-      ArrayList<DirectedElement> startAndEndPoints = new ArrayList<>(elements.size() * 2);
+      // Put the start and end points of all elements into a spatial hash.
+      // Point 2*i is the start and point 2*i+1 the end of elements[i];
+      // after joining, the points are re-assigned to the joined element.
+      EndpointGrid points = new EndpointGrid(elements, tolerance);
       int i = 0;
       for (Element element: elements)
       {
         element.index = i;
-        startAndEndPoints.add(new DirectedElement(i, element.start, false));
-        startAndEndPoints.add(new DirectedElement(i, element.getEnd(), true));
+        element.startIndex = 2 * i;
+        element.endIndex = 2 * i + 1;
         i++;
       }
-      // sort by x-coordinate to allow for binary search
-      Collections.sort(startAndEndPoints);
-      // The same list, but without nulling elements.
-      // Used for binary search, because binary-searching a "skip-list" is inefficient.
-      ArrayList<DirectedElement> originalStartAndEndPoints = new ArrayList<>(startAndEndPoints);
-      // add back-reference from elements to startAndEndPoints. This allows for faster deletion.
-      i = 0;
-      for (DirectedElement el: startAndEndPoints)
+
+      // Find the all start/end points near every start/end point, and merge if there is exactly 1 within the tolerance.
+      // Elements are visited in index order, over and over, like in repeated passes
+      // over the list. Only elements whose surroundings changed since their
+      // last visit ("dirty") are visited again, as the others would not change.
+      BitSet dirty = new BitSet(elements.size());
+      dirty.set(0, elements.size());
+      int cursor = 0;
+      while (!dirty.isEmpty())
       {
-        if (el.inverted)
+        int index = dirty.nextSetBit(cursor);
+        if (index < 0)
         {
-          elements.get(el.index).endIndex = i;
+          // start the next pass
+          index = dirty.nextSetBit(0);
         }
-        else
+        cursor = index + 1;
+        dirty.clear(index);
+        Element current = elements.get(index);
+        if (current == null)
         {
-          elements.get(el.index).startIndex = i;
+          // element was deleted
+          continue;
         }
-        i++;
-      }
-      
-      // Find the all start/end points near every start/end point, and merge if there is exactly 1 within the tolerance.
-      boolean somethingChanged = true;
-      while (somethingChanged)
-      {
-        somethingChanged = false;
-        for (Element current: elements)
+        boolean hasAnyNeighbors = false;
+        // for "invert=1 (check end point)", "invert=0 (check start point)":
+        for (int invert = 1; invert >= 0; invert--)
         {
-          if (current == null)
-          {
-            // element was deleted
-            continue;
+          // "Head" means the point we currently check (start or end).
+          int currentHead = invert == 0 ? current.startIndex : current.endIndex;
+          // How many other paths end or start are near the current head?
+          // If 0, there's nothing to do.
+          // If 1, merge the paths.
+          // If 2, we're at a fork, so don't merge.
+          //
+          // Optimization:
+          // We don't need to check if multiple end points meet because we don't join end-to-end, only start-to-end.
+          // End-to-end doesn't happen (except at forks) because
+          // nearest-first sorting would have inverted one of the paths, resulting in the end-to-start or start-to-end case.
+          // Due to symmetry, the end-to-start case is handled by the start-to-end case.
+          int[] nearby = points.near(currentHead, current.index, 2);
+          int pointsNearby = nearby.length;
+          if (pointsNearby >= 1) {
+            hasAnyNeighbors = true;
           }
-          boolean hasAnyNeighbors = false;
-          // for "invert=1 (check end point)", "invert=0 (check start point)":
-          for (int invert = 1; invert >= 0; invert--)
-          {
-            // "Head" means the point we currently check (start or end).
-            Point currentHead = invert == 0 ? current.start : current.getEnd();
-            // How many other paths end or start are near the current head?
-            // If 0, there's nothing to do.
-            // If 1, merge the paths.
-            // If 2, we're at a fork, so don't merge.
-            //
-            // Optimization:
-            // We don't need to check if multiple end points meet because we don't join end-to-end, only start-to-end.
-            // End-to-end doesn't happen (except at forks) because
-            // nearest-first sorting would have inverted one of the paths, resulting in the end-to-start or start-to-end case.
-            // Due to symmetry, the end-to-start case is handled by the start-to-end case.
-            int pointsNearby = 0;
-            Element startNearCurrentHead = null;
-            Element endNearCurrentHead = null;
 
-            // Optimization: We can skip all points that are far left of the current head point.
-            int skipPoints = numElementsLeftOf(originalStartAndEndPoints, currentHead.x - tolerance);
-            for (DirectedElement e: startAndEndPoints.subList(skipPoints, startAndEndPoints.size()))
-            {
-              // For every candidate point, check if it's nearby.
-              // If yes, remember it in startNearCurrentHead or endNearCurrentHead.
-              if (e == null || e.index == current.index)
+          if (pointsNearby == 1) {
+            // there is exactly one other start/end point nearby. join the paths.
+            Element merged;
+            Element removed;
+            Element otherElement = elements.get(points.owner[nearby[0]]);
+            if (!points.isEnd[nearby[0]]) {
+              // join current head to other.start. Note that head is "start" or "end" depending on invert.
+              Element other = otherElement;
+              if (invert == 1)
               {
-                // skip removed (null) entries,
-                // skip current element
-                continue;
+                // because invert==1, "head" means "end".
+                // join current.end ---- other.start
+                points.remove(current.endIndex, dirty);
+                points.remove(other.startIndex, dirty);
+                current.append(other);
               }
-              // skipPoints guarantees that all points are not too far left of the current head point.
-              assert e.start.x >= currentHead.x - tolerance;
-              if (e.start.x > currentHead.x + tolerance)
+              else
               {
-                // Current candidate is too far right.
-                // Optimization: All following candidates are even further more right, so we can stop here.
-                break;
+                // because invert==0, "head" means "start".
+                // join current.start ---- other.start by reversing current.
+                points.remove(current.startIndex, dirty);
+                points.remove(other.startIndex, dirty);
+                current.invert();
+                current.append(other);
               }
-
-              if (pointsNearby >= 2)
+              // remove other
+              merged = current;
+              removed = other;
+            } else {
+              Element other = otherElement;
+              // join current head to other.end. Note that head is "start" or "end" depending on invert.
+              if (invert == 1)
               {
-                break;
+                // because invert==1, "head" means "end".
+                // join current.end ---- other.end by reversing other.
+                points.remove(current.endIndex, dirty);
+                points.remove(other.endIndex, dirty);
+                other.invert();
+                current.append(other);
+                merged = current;
+                // remove other
+                removed = other;
               }
-              if (e.start.manhattanDistanceTo(currentHead) < tolerance)
+              else
               {
-                pointsNearby++;
-                if (e.inverted)
-                {
-                  // e.start is actually an end point
-                  endNearCurrentHead = elements.get(e.index);
-                  assert endNearCurrentHead != null;
-                }
-                else
-                {
-                  // e.start is a start point
-                  startNearCurrentHead = elements.get(e.index);
-                  assert startNearCurrentHead != null;
-                }
+                // because invert==0, "head" means "start".
+                // join other.end --- current.start
+                points.remove(other.endIndex, dirty);
+                points.remove(current.startIndex, dirty);
+                other.append(current);
+                merged = other;
+                // remove current
+                removed = current;
               }
             }
-            if (pointsNearby >= 1) {
-              hasAnyNeighbors = true;
-            }
-
-//          int pointsNearby = startNearCurrentHead.size() + endNearCurrentHead.size();
-            if (pointsNearby == 1) {
-              // there is exactly one other start/end point nearby. join the paths.
-              Element merged;
-              if (startNearCurrentHead != null) {
-                // join current head to other.start. Note that head is "start" or "end" depending on invert.
-                Element other = startNearCurrentHead;
-                if (invert == 1)
-                {
-                  // because invert==1, "head" means "end".
-                  // join current.end ---- other.start
-                  startAndEndPoints.set(current.endIndex, null);
-                  startAndEndPoints.set(other.startIndex, null);
-                  current.append(other);
-                  // remove other
-                  elements.set(other.index, null);
-                  merged = current;
-                }
-                else
-                {
-                  // because invert==0, "head" means "start".
-                  // join current.start ---- other.start by reversing current.
-                  startAndEndPoints.set(current.startIndex, null);
-                  startAndEndPoints.set(other.startIndex, null);
-                  current.invert();
-                  current.append(other);
-                  // remove other
-                  elements.set(other.index, null);
-                  merged = current;
-                }
-              } else {
-                Element other = endNearCurrentHead;
-                // join current head to other.end. Note that head is "start" or "end" depending on invert.
-                if (invert == 1)
-                {
-                  // because invert==1, "head" means "end".
-                  // join current.end ---- other.end by reversing other.
-                  startAndEndPoints.set(current.endIndex, null);
-                  startAndEndPoints.set(other.endIndex, null);
-                  other.invert();
-                  current.append(other);
-                  merged = current;
-                  // remove other
-                  elements.set(other.index, null);
-                }
-                else
-                {
-                  // because invert==0, "head" means "start".
-                  // join other.end --- current.start
-                  startAndEndPoints.set(other.endIndex, null);
-                  startAndEndPoints.set(current.startIndex, null);
-                  other.append(current);
-                  merged = other;
-                  // remove current
-                  elements.set(current.index, null);
-                }
-              }
-              if (merged.isClosedPath())
-              {
-                // merged path is closed, move it to the result
-                result.add(merged);
+            elements.set(removed.index, null);
+            if (merged.isClosedPath())
+            {
+              // merged path is closed, move it to the result
+              result.add(merged);
 
-                elements.set(merged.index, null);
-                startAndEndPoints.set(merged.startIndex, null);
-                startAndEndPoints.set(merged.endIndex, null);
-              }
-              else
-              {
-                // merged path remains. update the start/end points in the list.
-                startAndEndPoints.get(merged.startIndex).inverted = false;
-                startAndEndPoints.get(merged.endIndex).inverted = true;
-                startAndEndPoints.get(merged.startIndex).index = merged.index;
-                startAndEndPoints.get(merged.endIndex).index = merged.index;
-              }
-              somethingChanged = true;
-              break; // The current element has been modified. Go on to the next element.
-              // This is optimal if the paths are already pre-sorted.
+              elements.set(merged.index, null);
+              points.remove(merged.startIndex, dirty);
+              points.remove(merged.endIndex, dirty);
             }
             else
             {
-              // pointsNearby != 1:
-              // There is either a fork (pointsNearby >= 2) or an end (pointsNearby == 0) at the current head point.
-              // Nothing to do. After the start point (invert==0),
-              // the same will be checked for the end point (invert==1)
-              // and then for the next point (i++).
+              // merged path remains. update the start/end points.
+              points.isEnd[merged.startIndex] = false;
+              points.isEnd[merged.endIndex] = true;
+              points.owner[merged.startIndex] = merged.index;
+              points.owner[merged.endIndex] = merged.index;
+              dirty.set(merged.index);
             }
+            break; // The current element has been modified. Go on to the next element.
+            // This is optimal if the paths are already pre-sorted.
           }
-          if (!hasAnyNeighbors)
+          else
           {
-            // neither start nor end have any points nearby.
-            // -> information about this path is not relevant for remaining paths
-            result.add(current);
-            elements.set(current.index, null);
+            // pointsNearby != 1:
+            // There is either a fork (pointsNearby >= 2) or an end (pointsNearby == 0) at the current head point.
+            // Nothing to do. After the start point (invert==0),
+            // the same will be checked for the end point (invert==1)
+            // and then for the next point (i++).
           }
         }
+        if (!hasAnyNeighbors)
+        {
+          // neither start nor end have any points nearby.
+          // -> information about this path is not relevant for remaining paths
+          result.add(current);
+          elements.set(current.index, null);
+        }
       }
       // result.append( all elements != null )
       elements.stream()
@@ -288,68 +235,173 @@ public class OptimizerUtils
 
 
   /**
-   * Returns the number of elements at the head of the list that
-   * are left of the given x-coordinate. Relies on the list already being
-   * sorted according to x-coordinate. Elements must not be null.
-   * Similar to Collections.binarySearch, but with different return value.
+   * Uniform grid over the start and end points of Elements, with cells as
+   * large as the tolerance. Points within the tolerance of a point are in
+   * the same or a neighbouring cell.
    */
-  private static int numElementsLeftOf(ArrayList<DirectedElement> list, Double x)
+  private static final class EndpointGrid
   {
-    if (list.isEmpty())
-    {
-      return 0;
-    }
-    int start = -1; // Exclusive.
-    int end = list.size() - 1; // Inclusive. Always points to a valid index.
 
-    while (end - start > 1)
+    final double tolerance;
+    final double[] x;
+    final double[] y;
+    /**
+     * index of the Element a point belongs to
+     */
+    final int[] owner;
+    /**
+     * true if the point is the end point of its owner
+     */
+    final boolean[] isEnd;
+    final boolean[] removed;
+    /**
+     * the points of cell c are cellPoints[cellStart[c] ... cellStart[c+1]-1]
+     */
+    final Map<Long, Integer> cells = new HashMap<>();
+    final int[] cellStart;
+    final int[] cellPoints;
+
+    EndpointGrid(List<Element> elements, double tolerance)
     {
-      int mid = (start + end) / 2;
-      if (list.get(mid).start.x > x)
+      this.tolerance = tolerance;
+      int n = 2 * elements.size();
+      x = new double[n];
+      y = new double[n];
+      owner = new int[n];
+      isEnd = new boolean[n];
+      removed = new boolean[n];
+      int[] cellOf = new int[n];
+      for (int i = 0; i < elements.size(); i++)
+      {
+        Element e = elements.get(i);
+        x[2 * i] = e.getX(0);
+        y[2 * i] = e.getY(0);
+        x[2 * i + 1] = e.getX(e.size() - 1);
+        y[2 * i + 1] = e.getY(e.size() - 1);
+        owner[2 * i] = i;
+        owner[2 * i + 1] = i;
+        isEnd[2 * i + 1] = true;
+      }
+      if (tolerance <= 0)
+      {
+        // nothing is near anything
+        cellStart = new int[1];
+        cellPoints = new int[0];
+        return;
+      }
+      for (int p = 0; p < n; p++)
+      {
+        long key = key(cell(x[p]), cell(y[p]));
+        Integer c = cells.get(key);
+        if (c == null)
+        {
+          c = cells.size();
+          cells.put(key, c);
+        }
+        cellOf[p] = c;
+      }
+      cellStart = new int[cells.size() + 1];
+      for (int p = 0; p < n; p++)
+      {
+        cellStart[cellOf[p] + 1]++;
+      }
+      for (int c = 0; c < cells.size(); c++)
       {
-        end = mid;
+        cellStart[c + 1] += cellStart[c];
       }
-      else
+      int[] fill = Arrays.copyOf(cellStart, cells.size());
+      cellPoints = new int[n];
+      for (int p = 0; p < n; p++)
       {
-        start = mid;
+        cellPoints[fill[cellOf[p]]++] = p;
       }
     }
-    return end;
-  }
 
-    /**
-   * Represents an index within an ArrayList of Elements, combined with a
-   * inverted/non-inverted flag. Contains the start and end points of the
-   * referenced Element, switched if the inverted flag is set. Possesses a
-   * pre-order based on the x-coordinate of the start point, allowing for a
-   * "weak" but consistent sorting of points. In this order, points near a given
-   * x-coordinate can be efficiently found by binary search.
-   *
-   * Note: this ordering is inconsistent with equals.
-   *
-   * Note that it is mathematically impossible to extend this idea to both x and
-   * y with a single order relation (sort so that nearby points would have nearby
-   * indices).
-   */
-  private static class DirectedElement implements Comparable<DirectedElement>
-  {
+    private long cell(double v)
+    {
+      return (long) Math.floor(v / tolerance);
+    }
 
-    int index; // "pointer" to the respective Element
-    final Point start;
-    boolean inverted;
-    boolean valid = true;
+    private static long key(long cx, long cy)
+    {
+      return (cx << 32) ^ (cy & 0xffffffffL);
+    }
 
-    DirectedElement(int index, Point start, boolean inverted)
+    /**
+     * Points (not removed, not belonging to the given Element) with a
+     * manhattan distance below the tolerance to point p
+     * @param max stop after this many points
+     */
+    int[] near(int p, int ignoreOwner, int max)
     {
-      this.index = index;
-      this.start = start;
-      this.inverted = inverted;
+      int[] result = new int[max];
+      int count = 0;
+      if (tolerance <= 0)
+      {
+        return result;
+      }
+      long cx = cell(x[p]);
+      long cy = cell(y[p]);
+      for (long dy = -1; dy <= 1; dy++)
+      {
+        for (long dx = -1; dx <= 1; dx++)
+        {
+          Integer c = cells.get(key(cx + dx, cy + dy));
+          if (c == null)
+          {
+            continue;
+          }
+          for (int k = cellStart[c]; k < cellStart[c + 1]; k++)
+          {
+            int q = cellPoints[k];
+            if (removed[q] || owner[q] == ignoreOwner
+              || Math.abs(x[q] - x[p]) + Math.abs(y[q] - y[p]) >= tolerance)
+            {
+              continue;
+            }
+            result[count++] = q;
+            if (count == max)
+            {
+              return result;
+            }
+          }
+        }
+      }
+      return Arrays.copyOf(result, count);
     }
 
-    @Override
-    public int compareTo(DirectedElement o)
+    /**
+     * Remove point p. The owners of all points near it are marked dirty,
+     * because they might be joinable now.
+     */
+    void remove(int p, BitSet dirty)
     {
-      return Double.compare(start.x, o.start.x);
+      removed[p] = true;
+      if (tolerance <= 0)
+      {
+        return;
+      }
+      long cx = cell(x[p]);
+      long cy = cell(y[p]);
+      for (long dy = -1; dy <= 1; dy++)
+      {
+        for (long dx = -1; dx <= 1; dx++)
+        {
+          Integer c = cells.get(key(cx + dx, cy + dy));
+          if (c == null)
+          {
+            continue;
+          }
+          for (int k = cellStart[c]; k < cellStart[c + 1]; k++)
+          {
+            int q = cellPoints[k];
+            if (!removed[q] && Math.abs(x[q] - x[p]) + Math.abs(y[q] - y[p]) < tolerance)
+            {
+              dirty.set(owner[q]);
+            }
+          }
+        }
+      }
     }
   }
 }
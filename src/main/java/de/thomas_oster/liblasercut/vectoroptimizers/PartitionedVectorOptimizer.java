@@ -0,0 +1,195 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Ordering for very large jobs: the bounding box of the path start points is
+ * divided into a grid of square tiles with about pathsPerTile paths each.
+ * The paths inside every tile are ordered by the inner optimizer, all
+ * tiles in parallel (on the common ForkJoinPool). The tiles are cut row by
+ * row in serpentine order (left to right, then right to left, ...).
+ *
+ * Every tile starts with the path nearest to the middle of the edge it is
+ * entered from, so the travel between two tiles stays short. The result
+ * does not depend on the number of cores.
+ */
+public class PartitionedVectorOptimizer extends VectorOptimizer
+{
+
+  public static final int DEFAULT_PATHS_PER_TILE = 2000;
+
+  private final VectorOptimizer inner;
+  private final int pathsPerTile;
+
+  public PartitionedVectorOptimizer()
+  {
+    this(new NearestVectorOptimizer(), DEFAULT_PATHS_PER_TILE);
+  }
+
+  /**
+   * @param inner optimizer for the paths inside one tile. It is called from
+   * several threads at once.
+   * @param pathsPerTile average number of paths per tile
+   */
+  public PartitionedVectorOptimizer(VectorOptimizer inner, int pathsPerTile)
+  {
+    if (pathsPerTile < 1)
+    {
+      throw new IllegalArgumentException("pathsPerTile must be positive");
+    }
+    this.inner = inner;
+    this.pathsPerTile = pathsPerTile;
+  }
+
+  public VectorOptimizer getInner()
+  {
+    return inner;
+  }
+
+  public int getPathsPerTile()
+  {
+    return pathsPerTile;
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    int n = e.size();
+    if (n <= pathsPerTile)
+    {
+      return inner.sort(e, dpi);
+    }
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (Element el : e)
+    {
+      minX = Math.min(minX, el.getX(0));
+      minY = Math.min(minY, el.getY(0));
+      maxX = Math.max(maxX, el.getX(0));
+      maxY = Math.max(maxY, el.getY(0));
+    }
+    double width = maxX - minX;
+    double height = maxY - minY;
+    int tiles = (n + pathsPerTile - 1) / pathsPerTile;
+    // square tiles, or a single row / column if all paths start on a line
+    double tileSize = Math.max(Math.sqrt(width * height / tiles), Math.max(width, height) / tiles);
+    if (!(tileSize > 0))
+    {
+      return inner.sort(e, dpi);
+    }
+    int columns = Math.max(1, (int) Math.ceil(width / tileSize));
+    int rows = Math.max(1, (int) Math.ceil(height / tileSize));
+
+    // tiles in serpentine order
+    List<List<Element>> parts = new ArrayList<>(columns * rows);
+    for (int i = 0; i < columns * rows; i++)
+    {
+      parts.add(new ArrayList<>());
+    }
+    for (Element el : e)
+    {
+      int column = Math.min(columns - 1, (int) ((el.getX(0) - minX) / tileSize));
+      int row = Math.min(rows - 1, (int) ((el.getY(0) - minY) / tileSize));
+      parts.get(serpentineIndex(column, row, columns)).add(el);
+    }
+
+    List<List<Element>> sorted = new ArrayList<>(parts.size());
+    for (int i = 0; i < parts.size(); i++)
+    {
+      sorted.add(null);
+    }
+    final double x0 = minX;
+    final double y0 = minY;
+    IntStream.range(0, parts.size()).parallel().forEach(t ->
+    {
+      List<Element> part = parts.get(t);
+      if (part.isEmpty())
+      {
+        sorted.set(t, part);
+        return;
+      }
+      int row = t / columns;
+      int column = row % 2 == 0 ? t % columns : columns - 1 - t % columns;
+      // the tile is entered from the previous one: from the bottom at the
+      // start of a row, otherwise from the left or right
+      double entryX = x0 + column * tileSize;
+      double entryY = y0 + row * tileSize;
+      if (t % columns == 0)
+      {
+        entryX += tileSize / 2;
+      }
+      else
+      {
+        entryY += tileSize / 2;
+        if (row % 2 == 1)
+        {
+          entryX += tileSize;
+        }
+      }
+      moveNearestToFront(part, entryX, entryY);
+      sorted.set(t, inner.sort(part, dpi));
+    });
+
+    List<Element> result = new ArrayList<>(n);
+    for (List<Element> part : sorted)
+    {
+      result.addAll(part);
+    }
+    return result;
+  }
+
+  private static int serpentineIndex(int column, int row, int columns)
+  {
+    return row * columns + (row % 2 == 0 ? column : columns - 1 - column);
+  }
+
+  /**
+   * Moves the path whose start point is nearest to (x, y) to the front,
+   * because the ordering optimizers start with the first path
+   */
+  private static void moveNearestToFront(List<Element> part, double x, double y)
+  {
+    int best = 0;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < part.size(); i++)
+    {
+      double dx = part.get(i).getX(0) - x;
+      double dy = part.get(i).getY(0) - y;
+      double d = dx * dx + dy * dy;
+      if (d < bestDistance)
+      {
+        best = i;
+        bestDistance = d;
+      }
+    }
+    part.add(0, part.remove(best));
+  }
+}
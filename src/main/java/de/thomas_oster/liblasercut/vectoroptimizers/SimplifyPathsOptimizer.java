@@ -0,0 +1,178 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserCutter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * This VectorOptimizer removes points which do not change the geometry by more
+ * than the tolerance, e.g. the many nearly collinear points of flattened
+ * curves. The order of the paths is not changed.
+ *
+ * Every path is simplified with the Douglas-Peucker algorithm, so no removed
+ * point is further than the tolerance away from the simplified path.
+ * Paths are simplified in parallel.
+ */
+public class SimplifyPathsOptimizer extends VectorOptimizer
+{
+
+  /**
+   * Default tolerance in dots, half of the default curve precision
+   * of LaserCutter
+   */
+  public static final double DEFAULT_TOLERANCE = 0.5;
+
+  private final double tolerance;
+
+  public SimplifyPathsOptimizer()
+  {
+    this(DEFAULT_TOLERANCE);
+  }
+
+  /**
+   * @param tolerance maximum distance in dots between a removed point and
+   * the simplified path
+   */
+  public SimplifyPathsOptimizer(double tolerance)
+  {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Use half of the curve precision required by the cutter, so that the
+   * error of flattening and simplification together stays within
+   * the required precision.
+   * @see LaserCutter#getRequiredCurvePrecision()
+   */
+  public SimplifyPathsOptimizer(LaserCutter cutter)
+  {
+    this(cutter.getRequiredCurvePrecision() / 2);
+  }
+
+  public double getTolerance()
+  {
+    return tolerance;
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    return e.parallelStream()
+      .map(el -> simplify(el, tolerance))
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Douglas-Peucker simplification (iterative, so long paths can't overflow
+   * the stack).
+   * @return the given Element if nothing can be removed, otherwise a new one
+   */
+  static Element simplify(Element e, double tolerance)
+  {
+    int n = e.size();
+    if (n <= 2)
+    {
+      return e;
+    }
+    boolean[] keep = new boolean[n];
+    keep[0] = true;
+    keep[n - 1] = true;
+    double toleranceSq = tolerance * tolerance;
+    // stack of (first, last) ranges whose inner points are still undecided
+    int[] stack = new int[64];
+    int top = 0;
+    stack[top++] = 0;
+    stack[top++] = n - 1;
+    int kept = 2;
+    while (top > 0)
+    {
+      int last = stack[--top];
+      int first = stack[--top];
+      int farthest = -1;
+      double farthestSq = toleranceSq;
+      for (int i = first + 1; i < last; i++)
+      {
+        double d = distanceSq(e, i, first, last);
+        if (d > farthestSq)
+        {
+          farthest = i;
+          farthestSq = d;
+        }
+      }
+      if (farthest < 0)
+      {
+        continue;
+      }
+      keep[farthest] = true;
+      kept++;
+      if (top + 4 > stack.length)
+      {
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      }
+      if (farthest - first > 1)
+      {
+        stack[top++] = first;
+        stack[top++] = farthest;
+      }
+      if (last - farthest > 1)
+      {
+        stack[top++] = farthest;
+        stack[top++] = last;
+      }
+    }
+    if (kept == n || (e.isClosedPath() && kept < 4))
+    {
+      // nothing to remove, or a closed path would collapse into a line
+      return e;
+    }
+    Element result = new Element(e.prop, e.getX(0), e.getY(0));
+    for (int i = 1; i < n; i++)
+    {
+      if (keep[i])
+      {
+        result.addPoint(e.getX(i), e.getY(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Squared distance of point i to the line segment from point a to point b
+   */
+  private static double distanceSq(Element e, int i, int a, int b)
+  {
+    double ax = e.getX(a);
+    double ay = e.getY(a);
+    double dx = e.getX(b) - ax;
+    double dy = e.getY(b) - ay;
+    double px = e.getX(i) - ax;
+    double py = e.getY(i) - ay;
+    double lengthSq = dx * dx + dy * dy;
+    if (lengthSq > 0)
+    {
+      double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq));
+      px -= t * dx;
+      py -= t * dy;
+    }
+    return px * px + py * py;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+
+/**
+ * Estimated cost of going from the end of one path to the start of the next
+ * one. The ordering optimizers (NearestVectorOptimizer, TwoOptVectorOptimizer)
+ * minimize the sum of these costs.
+ *
+ * The cost must be symmetric and must not be negative.
+ * @see de.thomas_oster.liblasercut.LaserCutter#getTravelCostModel()
+ */
+public interface TravelCostModel
+{
+
+  /**
+   * The length of the move. Property changes are free.
+   */
+  TravelCostModel EUCLIDEAN = new TravelCostModel()
+  {
+    @Override
+    public double moveCost(double dx, double dy)
+    {
+      return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Override
+    public double minMoveCost(double distance)
+    {
+      return distance;
+    }
+
+    @Override
+    public double switchCost(LaserProperty from, LaserProperty to)
+    {
+      return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "EUCLIDEAN";
+    }
+  };
+
+  /**
+   * Cost of a move with the laser off
+   * @param dx distance along the x axis in mm
+   * @param dy distance along the y axis in mm
+   */
+  double moveCost(double dx, double dy);
+
+  /**
+   * A lower bound of moveCost() for all moves of the given length.
+   * Used to stop searching for cheaper moves.
+   * @param distance euclidean length of the move in mm
+   */
+  double minMoveCost(double distance);
+
+  /**
+   * Cost of changing the laser property between two paths. Must be 0 if
+   * both are equal.
+   */
+  double switchCost(LaserProperty from, LaserProperty to);
+}
@@ -0,0 +1,632 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Starts with the nearest neighbour order and improves it with 2-opt
+ * (cutting a sub-sequence of paths in reverse order and direction) and
+ * Or-opt (moving up to three consecutive paths, optionally reversed, to
+ * another place) until no improvement is found or the time budget is used up.
+ *
+ * Only moves that create a connection between an end point and one of its
+ * nearest neighbours are tried. In every round, the best move for every
+ * end point is searched in parallel, then the moves are applied one after
+ * another, each one checked again against the current order. The result
+ * does not depend on the number of cores (unless the time runs out).
+ *
+ * If inner first is enabled, paths are always cut before all closed paths
+ * containing them (see ContainmentTree).
+ *
+ * The travel between two paths is measured with a TravelCostModel, so the
+ * estimated machine time (including property switches) can be minimized
+ * instead of the distance.
+ */
+public class TwoOptVectorOptimizer extends VectorOptimizer
+{
+
+  public static final long DEFAULT_TIME_BUDGET_MILLIS = 2000;
+  /**
+   * number of neighbours considered for every end point
+   */
+  private static final int NEIGHBOURS = 8;
+  /**
+   * maximum number of paths moved by an Or-opt move
+   */
+  private static final int MAX_SEGMENT = 3;
+  /**
+   * improvements below this are ignored (rounding errors)
+   */
+  private static final double EPSILON = 1e-7;
+
+  private final long timeBudgetMillis;
+  private final boolean innerFirst;
+  private final TravelCostModel costModel;
+
+  public TwoOptVectorOptimizer()
+  {
+    this(DEFAULT_TIME_BUDGET_MILLIS, false);
+  }
+
+  public TwoOptVectorOptimizer(TravelCostModel costModel)
+  {
+    this(DEFAULT_TIME_BUDGET_MILLIS, false, costModel);
+  }
+
+  /**
+   * @param timeBudgetMillis maximum time spent on improving the order
+   * @param innerFirst cut paths before the closed paths around them
+   */
+  public TwoOptVectorOptimizer(long timeBudgetMillis, boolean innerFirst)
+  {
+    this(timeBudgetMillis, innerFirst, TravelCostModel.EUCLIDEAN);
+  }
+
+  /**
+   * @param timeBudgetMillis maximum time spent on improving the order
+   * @param innerFirst cut paths before the closed paths around them
+   * @param costModel cost of the travel between two paths
+   */
+  public TwoOptVectorOptimizer(long timeBudgetMillis, boolean innerFirst, TravelCostModel costModel)
+  {
+    this.timeBudgetMillis = timeBudgetMillis;
+    this.innerFirst = innerFirst;
+    this.costModel = costModel;
+  }
+
+  public long getTimeBudgetMillis()
+  {
+    return timeBudgetMillis;
+  }
+
+  public boolean isInnerFirst()
+  {
+    return innerFirst;
+  }
+
+  public TravelCostModel getCostModel()
+  {
+    return costModel;
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    return sort(e, DEFAULT_DPI);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    long deadline = System.nanoTime() + timeBudgetMillis * 1000000L;
+    List<Element> start;
+    if (innerFirst)
+    {
+      start = constrainedNearest(e, dpi);
+    }
+    else
+    {
+      start = new NearestVectorOptimizer(costModel).sort(e, dpi);
+    }
+    if (start.size() < 3)
+    {
+      return start;
+    }
+    Tour tour = new Tour(start, innerFirst ? containers(start) : null, costModel, dpi);
+    tour.optimize(deadline);
+    return tour.toList();
+  }
+
+  private static int[][] containers(List<Element> e)
+  {
+    ContainmentTree tree = new ContainmentTree(e);
+    int[][] result = new int[e.size()][];
+    for (int i = 0; i < result.length; i++)
+    {
+      result[i] = tree.getContainers(i);
+    }
+    return result;
+  }
+
+  /**
+   * Nearest neighbour order where a path only becomes available after all
+   * paths inside it have been cut
+   */
+  private List<Element> constrainedNearest(List<Element> e, double dpi)
+  {
+    List<Element> result = new ArrayList<>(e.size());
+    int n = e.size();
+    if (n == 0)
+    {
+      return result;
+    }
+    Element[] elements = e.toArray(new Element[0]);
+    int[][] containers = containers(e);
+    int[] remainingChildren = new int[n];
+    for (int i = 0; i < n; i++)
+    {
+      for (int c : containers[i])
+      {
+        remainingChildren[c]++;
+      }
+    }
+    double[] x = new double[2 * n];
+    double[] y = new double[2 * n];
+    boolean[] closed = new boolean[n];
+    for (int i = 0; i < n; i++)
+    {
+      x[2 * i] = elements[i].getX(0);
+      y[2 * i] = elements[i].getY(0);
+      x[2 * i + 1] = elements[i].getX(elements[i].size() - 1);
+      y[2 * i + 1] = elements[i].getY(elements[i].size() - 1);
+      closed[i] = elements[i].isClosedPath();
+    }
+    KdTree tree = new KdTree(x, y);
+    EndpointCosts costs = new EndpointCosts(costModel, dpi, elements, x, y);
+    int first = -1;
+    for (int i = 0; i < n; i++)
+    {
+      if (closed[i] || remainingChildren[i] > 0)
+      {
+        tree.remove(2 * i + 1);
+      }
+      if (remainingChildren[i] > 0)
+      {
+        tree.remove(2 * i);
+      }
+      else if (first == -1)
+      {
+        first = i;
+      }
+    }
+    int next = 2 * first;
+    while (next != -1)
+    {
+      int i = next / 2;
+      tree.remove(2 * i);
+      tree.remove(2 * i + 1);
+      Element current = elements[i];
+      if (next % 2 == 1)
+      {
+        current.invert();
+      }
+      result.add(current);
+      for (int c : containers[i])
+      {
+        if (--remainingChildren[c] == 0)
+        {
+          tree.restore(2 * c);
+          if (!closed[c])
+          {
+            tree.restore(2 * c + 1);
+          }
+        }
+      }
+      Point end = current.getEnd();
+      next = costs.cheapest(tree, end.x, end.y, current.prop);
+    }
+    return result;
+  }
+
+  /**
+   * A move found in the evaluation phase. It is stored by its end points,
+   * because positions change while other moves are applied.
+   */
+  private static final class Move
+  {
+
+    /**
+     * 0 for 2-opt, otherwise the segment length of an Or-opt move
+     */
+    final int kind;
+    final int a;
+    final int b;
+    final double delta;
+
+    Move(int kind, int a, int b, double delta)
+    {
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+      this.delta = delta;
+    }
+  }
+
+  /**
+   * Concrete positions of a move in the current order
+   */
+  private static final class Change
+  {
+
+    double delta;
+    int p;
+    int q;
+    /**
+     * Or-opt: the segment is inserted between u and v (positions in the
+     * order without the segment, -1 / n for the start / end)
+     */
+    int u;
+    int v;
+    boolean reversed;
+  }
+
+  /**
+   * The current order of paths. End point 2*i is the original start of path
+   * i and 2*i+1 its original end.
+   */
+  private static final class Tour
+  {
+
+    final Element[] elements;
+    final int n;
+    final double[] x;
+    final double[] y;
+    final int[] order;
+    final int[] pos;
+    final boolean[] flipped;
+    /**
+     * indices of the closed paths containing each path, null if
+     * the order is not restricted
+     */
+    final int[][] containers;
+    final int[][] neighbours;
+    final EndpointCosts costs;
+
+    Tour(List<Element> start, int[][] containers, TravelCostModel costModel, double dpi)
+    {
+      elements = start.toArray(new Element[0]);
+      n = elements.length;
+      this.containers = containers;
+      x = new double[2 * n];
+      y = new double[2 * n];
+      order = new int[n];
+      pos = new int[n];
+      flipped = new boolean[n];
+      for (int i = 0; i < n; i++)
+      {
+        x[2 * i] = elements[i].getX(0);
+        y[2 * i] = elements[i].getY(0);
+        x[2 * i + 1] = elements[i].getX(elements[i].size() - 1);
+        y[2 * i + 1] = elements[i].getY(elements[i].size() - 1);
+        order[i] = i;
+        pos[i] = i;
+      }
+      costs = new EndpointCosts(costModel, dpi, elements, x, y);
+      KdTree tree = new KdTree(x, y);
+      neighbours = new int[2 * n][];
+      IntStream.range(0, 2 * n).parallel().forEach(a ->
+      {
+        // the point itself and the other end of the same path are not useful
+        int[] candidates = tree.nearest(x[a], y[a], NEIGHBOURS + 2);
+        neighbours[a] = Arrays.stream(candidates).filter(b -> b / 2 != a / 2).limit(NEIGHBOURS).toArray();
+      });
+    }
+
+    int startOf(int e)
+    {
+      return flipped[e] ? 2 * e + 1 : 2 * e;
+    }
+
+    int endOf(int e)
+    {
+      return flipped[e] ? 2 * e : 2 * e + 1;
+    }
+
+    double d(int a, int b)
+    {
+      return costs.cost(a, b);
+    }
+
+    /**
+     * Travel from path at position i to the path at position j
+     */
+    double travel(int i, int j)
+    {
+      return d(endOf(order[i]), startOf(order[j]));
+    }
+
+    /**
+     * 2-opt: reverse positions p..q so that a and b become connected.
+     * a and b must both be starts or both be ends.
+     */
+    boolean twoOpt(int a, int b, Change c)
+    {
+      int ea = a / 2;
+      int eb = b / 2;
+      boolean aEnd = a == endOf(ea);
+      if (ea == eb || aEnd != (b == endOf(eb)))
+      {
+        return false;
+      }
+      int lo = Math.min(pos[ea], pos[eb]);
+      int hi = Math.max(pos[ea], pos[eb]);
+      int p = aEnd ? lo + 1 : lo;
+      int q = aEnd ? hi : hi - 1;
+      double before = 0;
+      double after = 0;
+      if (p > 0)
+      {
+        before += travel(p - 1, p);
+        after += d(endOf(order[p - 1]), endOf(order[q]));
+      }
+      if (q < n - 1)
+      {
+        before += travel(q, q + 1);
+        after += d(startOf(order[p]), startOf(order[q + 1]));
+      }
+      c.delta = after - before;
+      c.p = p;
+      c.q = q;
+      return true;
+    }
+
+    /**
+     * Or-opt: move the segment of length paths starting (if a is a start)
+     * or ending (if a is an end) at a, so that a gets connected to b
+     */
+    boolean orOpt(int a, int b, int length, Change c)
+    {
+      int ea = a / 2;
+      int eb = b / 2;
+      if (ea == eb)
+      {
+        return false;
+      }
+      boolean aStart = a == startOf(ea);
+      int p = aStart ? pos[ea] : pos[ea] - length + 1;
+      int q = p + length - 1;
+      if (p < 0 || q >= n || (p == 0 && q == n - 1))
+      {
+        return false;
+      }
+      int r = pos[eb];
+      if (r >= p && r <= q)
+      {
+        return false;
+      }
+      boolean bEnd = b == endOf(eb);
+      // a gets connected to an end by inserting after it, to a start by
+      // inserting before it. Start to start or end to end needs reversing.
+      boolean insertAfter = bEnd;
+      boolean reversed = aStart != bEnd;
+      int u;
+      int v;
+      if (insertAfter)
+      {
+        u = r;
+        v = r + 1 == p ? q + 1 : r + 1;
+      }
+      else
+      {
+        v = r;
+        u = r - 1 == q ? p - 1 : r - 1;
+      }
+      if (u == p - 1 && v == q + 1 && !reversed)
+      {
+        return false;
+      }
+      double delta = 0;
+      if (p > 0)
+      {
+        delta -= travel(p - 1, p);
+      }
+      if (q < n - 1)
+      {
+        delta -= travel(q, q + 1);
+      }
+      if (p > 0 && q < n - 1)
+      {
+        delta += travel(p - 1, q + 1);
+      }
+      int segmentStart = reversed ? endOf(order[q]) : startOf(order[p]);
+      int segmentEnd = reversed ? startOf(order[p]) : endOf(order[q]);
+      if (u >= 0 && v < n)
+      {
+        delta -= travel(u, v);
+      }
+      if (u >= 0)
+      {
+        delta += d(endOf(order[u]), segmentStart);
+      }
+      if (v < n)
+      {
+        delta += d(segmentEnd, startOf(order[v]));
+      }
+      c.delta = delta;
+      c.p = p;
+      c.q = q;
+      c.u = u;
+      c.v = v;
+      c.reversed = reversed;
+      return true;
+    }
+
+    boolean evaluate(int kind, int a, int b, Change c)
+    {
+      return kind == 0 ? twoOpt(a, b, c) : orOpt(a, b, kind, c);
+    }
+
+    /**
+     * @return true if a path at positions from..to is contained in a path
+     * at positions min..max
+     */
+    boolean containedIn(int from, int to, int min, int max)
+    {
+      for (int i = from; i <= to; i++)
+      {
+        for (int c : containers[order[i]])
+        {
+          if (pos[c] >= min && pos[c] <= max)
+          {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return true if the change keeps every path before the paths
+     * containing it
+     */
+    boolean isAllowed(int kind, Change c)
+    {
+      if (containers == null)
+      {
+        return true;
+      }
+      if ((kind == 0 || c.reversed) && containedIn(c.p, c.q, c.p, c.q))
+      {
+        return false;
+      }
+      if (kind == 0)
+      {
+        return true;
+      }
+      if (c.u < c.p)
+      {
+        // paths between u and p move behind the segment
+        return !containedIn(c.u + 1, c.p - 1, c.p, c.q);
+      }
+      // the segment moves behind the paths between q and u
+      return !containedIn(c.p, c.q, c.q + 1, c.u);
+    }
+
+    void apply(int kind, Change c)
+    {
+      if (kind == 0)
+      {
+        reverse(c.p, c.q);
+        return;
+      }
+      int length = c.q - c.p + 1;
+      int[] segment = Arrays.copyOfRange(order, c.p, c.q + 1);
+      int target;
+      if (c.u < c.p)
+      {
+        target = c.u + 1;
+        System.arraycopy(order, target, order, target + length, c.p - target);
+      }
+      else
+      {
+        target = c.u - length + 1;
+        System.arraycopy(order, c.q + 1, order, c.p, c.u - c.q);
+      }
+      System.arraycopy(segment, 0, order, target, length);
+      for (int i = Math.min(c.p, target), end = Math.max(c.q, c.u); i <= end; i++)
+      {
+        pos[order[i]] = i;
+      }
+      if (c.reversed)
+      {
+        reverse(target, target + length - 1);
+      }
+    }
+
+    /**
+     * reverse order and direction of the paths at positions p..q
+     */
+    void reverse(int p, int q)
+    {
+      for (int i = p, j = q; i <= j; i++, j--)
+      {
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+        flipped[order[i]] = !flipped[order[i]];
+        pos[order[i]] = i;
+        if (i != j)
+        {
+          flipped[order[j]] = !flipped[order[j]];
+          pos[order[j]] = j;
+        }
+      }
+    }
+
+    /**
+     * @return the best improving move connecting a to one of its neighbours
+     */
+    Move bestMove(int a)
+    {
+      Change c = new Change();
+      Move best = null;
+      for (int b : neighbours[a])
+      {
+        for (int kind = 0; kind <= MAX_SEGMENT; kind++)
+        {
+          if (evaluate(kind, a, b, c) && c.delta < -EPSILON && (best == null || c.delta < best.delta))
+          {
+            best = new Move(kind, a, b, c.delta);
+          }
+        }
+      }
+      return best;
+    }
+
+    void optimize(long deadline)
+    {
+      Change c = new Change();
+      boolean improved = true;
+      while (improved && System.nanoTime() < deadline)
+      {
+        improved = false;
+        Move[] moves = new Move[2 * n];
+        IntStream.range(0, 2 * n).parallel().forEach(a -> moves[a] = bestMove(a));
+        Move[] found = Arrays.stream(moves).filter(Objects::nonNull)
+          .sorted(Comparator.comparingDouble(m -> m.delta)).toArray(Move[]::new);
+        for (int i = 0; i < found.length; i++)
+        {
+          if ((i & 63) == 0 && System.nanoTime() >= deadline)
+          {
+            return;
+          }
+          Move m = found[i];
+          // earlier moves may have changed the situation
+          if (evaluate(m.kind, m.a, m.b, c) && c.delta < -EPSILON && isAllowed(m.kind, c))
+          {
+            apply(m.kind, c);
+            improved = true;
+          }
+        }
+      }
+    }
+
+    List<Element> toList()
+    {
+      List<Element> result = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+      {
+        Element e = elements[order[i]];
+        if (flipped[order[i]])
+        {
+          e.invert();
+        }
+        result.add(e);
+      }
+      return result;
+    }
+  }
+}
@@ -18,12 +18,14 @@
  */
 package de.thomas_oster.liblasercut.vectoroptimizers;
 
+import de.thomas_oster.liblasercut.LaserCutter;
 import de.thomas_oster.liblasercut.LaserProperty;
 import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -41,24 +43,53 @@ public abstract class VectorOptimizer
     NEAREST,
     INNER_FIRST,
     SMALLEST_FIRST,
-    DELETE_DUPLICATE_PATHS
+    DELETE_DUPLICATE_PATHS,
+    NEAREST_2OPT,
+    NEAREST_PARTITIONED
   }
 
+  /**
+   * A path: a start point and the points it cuts lines to.
+   *
+   * The coordinates are stored in packed arrays. invert() only flips a flag,
+   * so all methods use logical indices (0 is the start, size()-1 the end).
+   */
   protected static class Element
   {
     LaserProperty prop;
-    Point start;
     /**
-     * List of moves. CachedEnd must be updated if moves is modified!
+     * Coordinates in physical order. If inverted is set, the logical order is
+     * the reverse.
      */
-    private final ArrayList<Point> moves = new ArrayList<>();
-    private Point cachedEnd = null;
+    private double[] x;
+    private double[] y;
+    private int size = 0;
+    private boolean inverted = false;
+    /**
+     * Computed on first use, cleared whenever points are added.
+     * Not affected by invert().
+     */
+    private Rectangle cachedBoundingBox = null;
+    private double cachedLength = -1;
     
     // Temporary storage for use in sorting algorithms:
     int index = -1;  /// Data attached to the path. Ignored in equals().
     int startIndex = -1; /// Data attached to the start point. Ignored in equals(). Handled by invert().
     int endIndex = -1; /// Data attached to the end point. Ignored in equals(). Handled by invert() and append().
 
+    Element(LaserProperty prop, double startX, double startY)
+    {
+      this.prop = prop;
+      x = new double[4];
+      y = new double[4];
+      addPoint(startX, startY);
+    }
+
+    Element(LaserProperty prop, Point start)
+    {
+      this(prop, start.x, start.y);
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -75,11 +106,18 @@ public abstract class VectorOptimizer
 
     public boolean equals(Element e)
     {
-      if (!this.start.equals(e.start) )
+      if (size != e.size)
       {
-        return false;//start point differs
+        return false;
       }
-      return this.moves.equals(e.moves);//move lists are different
+      for (int i = 0; i < size; i++)
+      {
+        if (Double.compare(getX(i), e.getX(i)) != 0 || Double.compare(getY(i), e.getY(i)) != 0)
+        {
+          return false;
+        }
+      }
+      return true;
     }
 
     /**
@@ -93,30 +131,70 @@ public abstract class VectorOptimizer
       endIndex = startIndex;
       startIndex = tmp;
 
-      cachedEnd = start;
-      if (!moves.isEmpty())
+      inverted = !inverted;
+    }
+
+    /**
+     * @return true if invert() has been called an odd number of times
+     * since the points were last added
+     */
+    boolean isInverted()
+    {
+      return inverted;
+    }
+
+    /**
+     * Physically reorder the coordinates so that inverted is false.
+     */
+    private void normalize()
+    {
+      if (!inverted)
       {
-        moves.add(0, start);
-        start = moves.remove(moves.size() - 1);
-        Collections.reverse(moves);
+        return;
       }
+      for (int i = 0, j = size - 1; i < j; i++, j--)
+      {
+        double t = x[i];
+        x[i] = x[j];
+        x[j] = t;
+        t = y[i];
+        y[i] = y[j];
+        y[j] = t;
+      }
+      inverted = false;
     }
-    
+
     /**
-     * Get the list of points after the start point. Do not modify this list!
+     * @return number of points, including the start point
      */
-    ArrayList<Point> getMoves()
+    int size()
+    {
+      return size;
+    }
+
+    double getX(int i)
+    {
+      return x[inverted ? size - 1 - i : i];
+    }
+
+    double getY(int i)
     {
-      return moves;
+      return y[inverted ? size - 1 - i : i];
+    }
+
+    Point getPoint(int i)
+    {
+      return new Point(getX(i), getY(i));
+    }
+
+    Point getStart()
+    {
+      return getPoint(0);
     }
 
     Point getEnd()
     {
-      if (cachedEnd != null)
-      {
-        return cachedEnd;
-      }
-      return moves.isEmpty() ? start : moves.get(moves.size() - 1);
+      return getPoint(size - 1);
     }
 
     /**
@@ -132,35 +210,81 @@ public abstract class VectorOptimizer
       if (!Objects.equals(prop, other.prop)) {
         throw new IllegalArgumentException("Cannot join paths with different properties");
       }
-      // the following should be approximately true: (getEnd().equals(other.start));
-      moves.addAll(other.moves);
-      cachedEnd = other.getEnd();
+      // the following should be approximately true: (getEnd().equals(other.getStart()));
+      normalize();
+      ensureCapacity(size + other.size - 1);
+      for (int i = 1; i < other.size; i++)
+      {
+        x[size] = other.getX(i);
+        y[size] = other.getY(i);
+        size++;
+      }
+      cachedBoundingBox = null;
+      cachedLength = -1;
       endIndex = other.endIndex;
     }
-    
+
+    void addPoint(double px, double py)
+    {
+      normalize();
+      ensureCapacity(size + 1);
+      x[size] = px;
+      y[size] = py;
+      size++;
+      cachedBoundingBox = null;
+      cachedLength = -1;
+    }
+
     void addPoint(Point p)
     {
-      moves.add(p);
-      cachedEnd = p;
+      addPoint(p.x, p.y);
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+      if (capacity > x.length)
+      {
+        int newCapacity = Math.max(capacity, 2 * x.length);
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+      }
     }
 
     /**
-     * compute bounding box of moves, including start point
+     * bounding box of all points, including start point.
+     * The result is cached, do not modify it!
      *
      * @return Rectangle
      */
     Rectangle boundingBox()
     {
-      if (start == null)
-      { // TODO may this happen?
-        return null;
+      if (cachedBoundingBox == null)
+      {
+        Rectangle bb = new Rectangle(x[0], y[0], x[0], y[0]);
+        for (int i = 1; i < size; i++)
+        {
+          bb.add(x[i], y[i]);
+        }
+        cachedBoundingBox = bb;
       }
-      Rectangle bb = new Rectangle(start.x, start.y, start.x, start.y);
-      for (Point p : moves)
+      return cachedBoundingBox;
+    }
+
+    /**
+     * @return sum of the lengths of all lines
+     */
+    double length()
+    {
+      if (cachedLength < 0)
       {
-        bb.add(p);
+        double length = 0;
+        for (int i = 1; i < size; i++)
+        {
+          length += Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+        }
+        cachedLength = length;
       }
-      return bb;
+      return cachedLength;
     }
 
     /**
@@ -170,51 +294,75 @@ public abstract class VectorOptimizer
      */
     boolean isClosedPath()
     {
-      if ((start == null) || moves.isEmpty())
+      if (size < 2)
       {
         return false;
       }
-      return getEnd().equals(start);
+      return Double.compare(x[0], x[size - 1]) == 0 && Double.compare(y[0], y[size - 1]) == 0;
+    }
+
+    /**
+     * Add this path to a VectorPart (moveto start, lineto all other points).
+     * Properties are not set.
+     */
+    void writeTo(VectorPart vp)
+    {
+      normalize();
+      vp.polyline(x, y, size);
     }
 
     @Override
     public String toString()
     {
-      StringBuilder partial = new StringBuilder("Element {"
-              + ((start == null) ? "null" : "(" + start.x + ", " + start.y + ")"));
-
-      for (Point p : moves)
+      StringBuilder partial = new StringBuilder("Element {");
+      for (int i = 0; i < size; i++)
       {
-        partial.append(" -> (").append(p.x).append(", ").append(p.y).append(")");
+        if (i > 0)
+        {
+          partial.append(" -> ");
+        }
+        partial.append("(").append(getX(i)).append(", ").append(getY(i)).append(")");
       }
 
       return partial + "}";
     }
   }
 
+  /**
+   * @return the preset OptimizerPipeline for the given strategy
+   * @see OptimizerPipeline#preset(OrderStrategy)
+   */
   public static VectorOptimizer create(OrderStrategy s)
   {
-    switch (s)
+    return create(s, TravelCostModel.EUCLIDEAN);
+  }
+
+  /**
+   * @return the preset OptimizerPipeline for the given strategy, ordering
+   * by the travel cost model of the given cutter
+   * @see OptimizerPipeline#preset(OrderStrategy, LaserCutter)
+   */
+  public static VectorOptimizer create(OrderStrategy s, LaserCutter cutter)
+  {
+    return create(s, cutter.getTravelCostModel());
+  }
+
+  private static VectorOptimizer create(OrderStrategy s, TravelCostModel costModel)
+  {
+    // callers check for FileVectorOptimizer to skip optimizing
+    if (s == OrderStrategy.FILE)
     {
-      case FILE:
-        return new FileVectorOptimizer();
-      case NEAREST:
-        return new NearestVectorOptimizer();
-      case INNER_FIRST:
-        return new InnerFirstVectorOptimizer();
-      case SMALLEST_FIRST:
-        return new SmallestFirstVectorOptimizer();
-      case DELETE_DUPLICATE_PATHS:
-        return new DeleteDuplicatePathsOptimizer();
+      return new FileVectorOptimizer();
     }
-    throw new IllegalArgumentException("Unknown Order Strategy: " + s);
+    return OptimizerPipeline.preset(s, costModel);
   }
 
   protected List<Element> divide(VectorPart vp)
   {
     List<Element> result = new ArrayList<>();
     Element cur = null;
-    Point lastMove = null;
+    double lastMoveX = 0;
+    double lastMoveY = 0;
     LaserProperty lastProp = null;
     boolean stop = false;
     for (VectorCommand cmd : vp.getCommandList())
@@ -223,7 +371,8 @@ public abstract class VectorOptimizer
       {
         case MOVETO:
         {
-          lastMove = new Point(cmd.getX(), cmd.getY());
+          lastMoveX = cmd.getX();
+          lastMoveY = cmd.getY();
           stop = true;
           break;
         }
@@ -236,11 +385,9 @@ public abstract class VectorOptimizer
             {
               result.add(cur);
             }
-            cur = new Element();
-            cur.start = lastMove;
-            cur.prop = lastProp;
+            cur = new Element(lastProp, lastMoveX, lastMoveY);
           }
-          cur.addPoint(new Point(cmd.getX(), cmd.getY()));
+          cur.addPoint(cmd.getX(), cmd.getY());
           break;
         }
         case SETPROPERTY:
@@ -258,11 +405,72 @@ public abstract class VectorOptimizer
     return result;
   }
 
+  /**
+   * Resolution assumed by sort() without a resolution: 1 dot = 1 mm
+   */
+  protected static final double DEFAULT_DPI = 25.4;
+
   protected abstract List<Element> sort(List<Element> e);
 
+  /**
+   * Called by optimize() with the resolution of the VectorPart. Optimizers
+   * with parameters in mm override this and convert them to dots for this
+   * call only, so one instance can optimize parts of different resolutions
+   * at the same time.
+   * @param dpi resolution of the Elements
+   */
+  protected List<Element> sort(List<Element> e, double dpi)
+  {
+    return sort(e);
+  }
+
   public VectorPart optimize(VectorPart vp)
   {
-    List<Element> opt = this.sort(this.divide(vp));
+    return build(this.sort(this.divide(vp), vp.getDPI()), vp);
+  }
+
+  /**
+   * Like optimize(), but also measures the paths before and after sorting
+   * and the time spent in every stage.
+   * @return report, the optimized VectorPart is report.getResult()
+   */
+  public OptimizationReport optimizeWithReport(VectorPart vp)
+  {
+    List<OptimizerPipeline.StageTiming> timings = new ArrayList<>();
+    long start = System.nanoTime();
+    List<Element> elements = this.divide(vp);
+    timings.add(new OptimizerPipeline.StageTiming("divide", System.nanoTime() - start));
+    // sort() may modify the Elements, so measure them first
+    OptimizationReport.Metrics before = new OptimizationReport.Metrics(elements);
+    long sortStart = System.nanoTime();
+    List<Element> opt = this.sort(elements, vp.getDPI());
+    timings.addAll(getSortTimings(System.nanoTime() - sortStart));
+    OptimizationReport.Metrics after = new OptimizationReport.Metrics(opt);
+    long buildStart = System.nanoTime();
+    VectorPart result = build(opt, vp);
+    long end = System.nanoTime();
+    timings.add(new OptimizerPipeline.StageTiming("build", end - buildStart));
+    return new OptimizationReport(result, before, after, timings, end - start);
+  }
+
+  /**
+   * Wall time of the last sort() call of the calling thread, split into
+   * stages if possible.
+   * Used by optimizeWithReport().
+   * @param sortNanos wall time of the whole sort() call
+   */
+  protected List<OptimizerPipeline.StageTiming> getSortTimings(long sortNanos)
+  {
+    return Collections.singletonList(new OptimizerPipeline.StageTiming(getClass().getSimpleName(), sortNanos));
+  }
+
+  /**
+   * Create the resulting VectorPart from the sorted Elements
+   * @param opt sorted Elements
+   * @param vp original VectorPart
+   */
+  protected VectorPart build(List<Element> opt, VectorPart vp)
+  {
     LaserProperty cp = opt.isEmpty() ? vp.getCurrentCuttingProperty() : opt.get(0).prop;
     VectorPart result = new VectorPart(cp, vp.getDPI());
     for (Element e : opt)
@@ -272,11 +480,7 @@ public abstract class VectorOptimizer
         result.setProperty(e.prop);
         cp = e.prop;
       }
-      result.moveto(e.start.x, e.start.y);
-      for (Point p : e.moves)
-      {
-        result.lineto(p.x, p.y);
-      }
+      e.writeTo(result);
     }
     return result;
   }
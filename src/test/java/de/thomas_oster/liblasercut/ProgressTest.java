@@ -0,0 +1,83 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProgressTest
+{
+
+  @Test
+  public void throttleKeepsStartAndEnd()
+  {
+    List<Integer> reported = new ArrayList<>();
+    ProgressListener listener = new ThrottledProgressListener(new ProgressListener()
+    {
+      @Override
+      public void progressChanged(Object source, int percent)
+      {
+        reported.add(percent);
+      }
+
+      @Override
+      public void taskChanged(Object source, String taskName)
+      {
+        reported.add(-1);
+      }
+    }, 10, 0);
+    for (int i = 0; i <= 100; i++)
+    {
+      listener.taskChanged(this, "working");
+      listener.progressChanged(this, i);
+    }
+    assertEquals(List.of(-1, 0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100), reported);
+  }
+
+  @Test
+  public void aggregatorWeighsStages() throws InterruptedException
+  {
+    ProgressAggregator progress = new ProgressAggregator(20, 80);
+    ProgressAggregator.Stage a = progress.addStage(100);
+    ProgressAggregator.Stage b = progress.addStage(300);
+    assertEquals(20, progress.getProgress());
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new Thread(() ->
+      {
+        for (int j = 0; j < 25; j++)
+        {
+          a.advance();
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    assertEquals(35, progress.getProgress());
+    b.advance(1000);
+    assertEquals(80, progress.getProgress());
+  }
+}
@@ -0,0 +1,298 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import de.thomas_oster.liblasercut.LazyBlackWhiteRaster;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DitheringAlgorithmTest
+{
+
+  /**
+   * Greyscale test image with a gradient and some noise, large enough to
+   * be split into several stripes
+   */
+  static GreyRaster getTestImage(int width, int height)
+  {
+    GreyRaster result = new GreyRaster(width, height);
+    java.util.Random r = new java.util.Random(1234);
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        int v = (x * 255 / width + y * 255 / height) / 2 + r.nextInt(40) - 20;
+        result.setGreyScale(x, y, Math.max(0, Math.min(255, v)));
+      }
+    }
+    return result;
+  }
+
+  static void assertSameRaster(BlackWhiteRaster expected, BlackWhiteRaster actual)
+  {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++)
+    {
+      for (int x = 0; x < expected.getWidth(); x++)
+      {
+        assertEquals("pixel " + x + "," + y, expected.isBlack(x, y), actual.isBlack(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void orderedMatchesThresholdMatrix() throws InterruptedException
+  {
+    for (Ordered alg : new Ordered[]{new Ordered(), new Halftone(), new BrightenedHalftone()})
+    {
+      GreyscaleRaster src = getTestImage(203, 157);
+      int[][] filter = alg.getThresholdMatrix();
+      BlackWhiteRaster expected = new BlackWhiteRaster(src.getWidth(), src.getHeight());
+      for (int y = 0; y < src.getHeight(); y++)
+      {
+        for (int x = 0; x < src.getWidth(); x++)
+        {
+          expected.setBlack(x, y, src.getGreyScale(x, y) < filter[x % filter.length][y % filter.length]);
+        }
+      }
+      assertSameRaster(expected, alg.dither(src));
+    }
+  }
+
+  @Test
+  public void parallelAndDirectDitheringAreEqual() throws InterruptedException
+  {
+    for (DitheringAlgorithm alg : new DitheringAlgorithm[]{new Average(), new Grid(), new Random(), new Ordered(), new BlueNoise()})
+    {
+      BlackWhiteRaster parallel = alg.clone().dither(getTestImage(300, 211));
+      // dithering into the source image is done sequentially
+      GreyRaster direct = getTestImage(300, 211);
+      alg.clone().ditherDirect(direct);
+      BlackWhiteRaster expected = new BlackWhiteRaster(direct.getWidth(), direct.getHeight());
+      for (int y = 0; y < direct.getHeight(); y++)
+      {
+        for (int x = 0; x < direct.getWidth(); x++)
+        {
+          expected.setBlack(x, y, direct.getGreyScale(x, y) == 0);
+        }
+      }
+      assertSameRaster(expected, parallel);
+    }
+  }
+
+  @Test
+  public void randomIsReproducible() throws InterruptedException
+  {
+    Random a = new Random();
+    a.setProperty("Seed", 42);
+    assertSameRaster(a.dither(getTestImage(100, 500)), a.clone().dither(getTestImage(100, 500)));
+  }
+
+  /**
+   * The original, hard-coded Floyd-Steinberg implementation
+   */
+  private static BlackWhiteRaster referenceFloydSteinberg(GreyscaleRaster src)
+  {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    BlackWhiteRaster target = new BlackWhiteRaster(width, height);
+    int[][] input = new int[width][2];
+    for (int x = 0; x < width; x++)
+    {
+      input[x][1] = src.getGreyScale(x, 0);
+    }
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        input[x][0] = input[x][1];
+        if (y + 1 < height)
+        {
+          input[x][1] = src.getGreyScale(x, y + 1);
+        }
+      }
+      for (int x = 0; x < width; x++)
+      {
+        target.setBlack(x, y, input[x][0] <= 127);
+        int error = input[x][0] - ((input[x][0] <= 127) ? 0 : 255);
+        if (x + 1 < width)
+        {
+          input[x + 1][0] = (input[x + 1][0] + 7 * error / 16);
+          if (y + 1 < height)
+          {
+            input[x + 1][1] = (input[x + 1][1] + 1 * error / 16);
+          }
+        }
+        if (y + 1 < height)
+        {
+          input[x][1] = (input[x][1] + 5 * error / 16);
+          if (x > 0)
+          {
+            input[x - 1][1] = (input[x - 1][1] + 3 * error / 16);
+          }
+        }
+      }
+    }
+    return target;
+  }
+
+  @Test
+  public void floydSteinbergIsUnchanged() throws InterruptedException
+  {
+    GreyscaleRaster src = getTestImage(173, 91);
+    assertSameRaster(referenceFloydSteinberg(src), new FloydSteinberg().dither(src));
+  }
+
+  @Test
+  public void errorDiffusionKeepsAverageBrightness() throws InterruptedException
+  {
+    GreyscaleRaster src = getTestImage(256, 256);
+    long sum = 0;
+    for (int y = 0; y < src.getHeight(); y++)
+    {
+      for (int x = 0; x < src.getWidth(); x++)
+      {
+        sum += src.getGreyScale(x, y);
+      }
+    }
+    double expectedWhite = sum / 255.0 / (src.getWidth() * src.getHeight());
+    for (ErrorDiffusion alg : new ErrorDiffusion[]{new FloydSteinberg(), new JarvisJudiceNinke(), new Stucki(), new Sierra()})
+    {
+      for (boolean serpentine : new boolean[]{false, true})
+      {
+        alg.setProperty("Serpentine", serpentine);
+        BlackWhiteRaster result = alg.dither(src);
+        int white = 0;
+        for (int y = 0; y < result.getHeight(); y++)
+        {
+          for (int x = 0; x < result.getWidth(); x++)
+          {
+            white += result.isBlack(x, y) ? 0 : 1;
+          }
+        }
+        assertEquals(alg + " serpentine=" + serpentine, expectedWhite, white / (double) (src.getWidth() * src.getHeight()), 0.02);
+      }
+    }
+  }
+
+  @Test
+  public void blueNoiseMaskUsesEveryRankOnce()
+  {
+    for (int size : new int[]{8, 32})
+    {
+      int[][] mask = BlueNoise.generateMask(size);
+      int n = size * size;
+      int[] expected = new int[n];
+      int[] actual = new int[n];
+      int i = 0;
+      for (int x = 0; x < size; x++)
+      {
+        for (int y = 0; y < size; y++)
+        {
+          expected[i] = (1 + i) * 256 / (1 + n);
+          actual[i++] = mask[x][y];
+        }
+      }
+      Arrays.sort(actual);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void lazyRasterMatchesDitheredRaster() throws InterruptedException
+  {
+    GreyscaleRaster src = getTestImage(150, 130);
+    Random random = new Random();
+    random.setProperty("Seed", 7);
+    for (DitheringAlgorithm alg : new DitheringAlgorithm[]{new FloydSteinberg(), new Stucki(), new Average(), new Grid(), random, new Halftone()})
+    {
+      BlackWhiteRaster expected = alg.dither(src);
+      LazyBlackWhiteRaster lazy = new LazyBlackWhiteRaster(src, alg, 4);
+      for (int y = 0; y < src.getHeight(); y++)
+      {
+        assertArrayEquals(alg.toString(), expected.getRasterLine(y, null), lazy.getRasterLine(y, null));
+      }
+      // going back dithers all rows into memory
+      assertArrayEquals(alg.toString(), expected.getRasterLine(3, null), lazy.getRasterLine(3, null));
+      for (int x = 0; x < src.getWidth(); x++)
+      {
+        assertEquals(expected.isBlack(x, 100), lazy.isBlack(x, 100));
+      }
+    }
+  }
+
+  /**
+   * FloydSteinberg which counts the rows dithered by its row streams
+   */
+  private static class CountingFloydSteinberg extends FloydSteinberg
+  {
+
+    int rows = 0;
+
+    @Override
+    public RowStream openRowStream(GreyscaleRaster src)
+    {
+      RowStream stream = super.openRowStream(src);
+      return new RowStream()
+      {
+        @Override
+        public void nextRow(byte[] packed)
+        {
+          rows++;
+          stream.nextRow(packed);
+        }
+
+        @Override
+        public void reset()
+        {
+          stream.reset();
+        }
+      };
+    }
+
+    @Override
+    public DitheringAlgorithm clone()
+    {
+      // the raster uses a clone, keep counting here
+      return this;
+    }
+  }
+
+  @Test
+  public void lazyRasterReadBottomUpDithersEveryRowAtMostTwice() throws InterruptedException
+  {
+    GreyscaleRaster src = getTestImage(80, 300);
+    BlackWhiteRaster expected = new FloydSteinberg().dither(src);
+    CountingFloydSteinberg alg = new CountingFloydSteinberg();
+    LazyBlackWhiteRaster lazy = new LazyBlackWhiteRaster(src, alg, 8);
+    for (int y = src.getHeight() - 1; y >= 0; y--)
+    {
+      assertArrayEquals(expected.getRasterLine(y, null), lazy.getRasterLine(y, null));
+    }
+    assertTrue(alg.rows + " rows dithered", alg.rows <= 2 * src.getHeight());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class DitheringCacheTest
+{
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void algorithmsWithDifferentPropertiesDiffer()
+  {
+    Ordered a = new BlueNoise();
+    Ordered b = new BlueNoise();
+    assertEquals(a, b);
+    b.setProperty("Mask size", 32);
+    assertNotEquals(a, b);
+  }
+
+  @Test
+  public void repeatedDitheringIsCached() throws Exception
+  {
+    GreyRaster src = DitheringAlgorithmTest.getTestImage(200, 150);
+    FloydSteinberg alg = new FloydSteinberg();
+    BlackWhiteRaster expected = alg.dither(src);
+
+    DitheringCache cache = new DitheringCache(1 << 20, folder.getRoot());
+    DitheringAlgorithmTest.assertSameRaster(expected, cache.dither(src, alg));
+    DitheringAlgorithmTest.assertSameRaster(expected, cache.dither(src, alg));
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+
+    // other settings or content must not hit
+    alg.setProperty("Serpentine", true);
+    cache.dither(src, alg);
+    alg.setProperty("Serpentine", false);
+    src.setGreyScale(10, 10, 255 - src.getGreyScale(10, 10));
+    cache.dither(src, alg);
+    assertEquals(3, cache.getMissCount());
+
+    // results survive on disk
+    src.setGreyScale(10, 10, 255 - src.getGreyScale(10, 10));
+    DitheringCache restarted = new DitheringCache(1 << 20, folder.getRoot());
+    DitheringAlgorithmTest.assertSameRaster(expected, new BlackWhiteRaster(src, alg, null, restarted));
+    assertEquals(1, restarted.getHitCount());
+    assertEquals(0, restarted.getMissCount());
+  }
+
+  @Test
+  public void memoryStaysWithinBudget() throws Exception
+  {
+    GreyRaster src = DitheringAlgorithmTest.getTestImage(80, 80);
+    // one result is 10 * 80 bytes
+    DitheringCache cache = new DitheringCache(2000);
+    Ordered alg = new Ordered();
+    for (int i = 0; i < 5; i++)
+    {
+      src.setGreyScale(0, 0, i);
+      cache.dither(src, alg);
+    }
+    assertEquals(1600, cache.getMemoryBytes());
+  }
+}
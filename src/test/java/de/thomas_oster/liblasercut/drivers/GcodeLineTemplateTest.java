@@ -0,0 +1,63 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.utils.AsciiBuffer;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GcodeLineTemplateTest
+{
+
+  private static void assertSameAsFormat(String format, Object... args)
+  {
+    AsciiBuffer result = new AsciiBuffer();
+    GcodeLineTemplate.parse(format).appendTo(result, args);
+    assertEquals(String.format(Locale.US, format, args), result.toString());
+  }
+
+  @Test
+  public void formatsLikeStringFormat()
+  {
+    Random r = new Random(2);
+    for (int i = 0; i < 20000; i++)
+    {
+      double x = i % 2 == 0 ? r.nextDouble() * 600 : Math.round(r.nextDouble() * 1e7) / 1e7 - 0.5;
+      assertSameAsFormat("G1 X%f Y%f F%d", x, -x, r.nextInt());
+    }
+    for (double x : new double[]{0.0, -0.0, -1e-7, 5e-7, -5e-7, 1.0000005, 1e300, Double.MIN_VALUE, Double.NaN, Double.NEGATIVE_INFINITY})
+    {
+      assertSameAsFormat("G0 Z%f", x);
+    }
+    // floats are passed on to String.format
+    for (float x : new float[]{1.5f, 1.0000005f, 0.1f, -2.0000005f, 123.456789f})
+    {
+      assertSameAsFormat("G0 Z%f", x);
+    }
+    assertSameAsFormat("M3 S%d ; 100%% %s", 12L, "power");
+    assertSameAsFormat("no conversions");
+    assertSameAsFormat("%s", (Object) null);
+    // not supported by the template, passed on to String.format
+    assertSameAsFormat("G0 X%.2f Y%5d", 1.005, 3);
+    assertSameAsFormat("G0 X%f", new java.math.BigDecimal("1.25"));
+  }
+}
@@ -0,0 +1,205 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.FloatPowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.ProgressListenerDummy;
+import de.thomas_oster.liblasercut.VectorPart;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Streams to a simulated Grbl, which answers lines in batches
+ */
+public class GrblTest extends Grbl
+{
+
+  private final List<String> received = new ArrayList<>();
+  private int maxBytesInBuffer = 0;
+  private volatile boolean resetReceived = false;
+
+  /**
+   * Answers "ok" (or the given error for lines starting with errorPrefix)
+   * when no more input is waiting, so that the driver can send ahead.
+   * If silentAfterError is set, the lines after the error are never
+   * answered, like after an alarm.
+   */
+  private void simulate(InputStream fromDriver, OutputStream toDriver, String errorPrefix, boolean silentAfterError)
+  {
+    Thread t = new Thread(() ->
+    {
+      try
+      {
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        int bytesInBuffer = 0;
+        StringBuilder line = new StringBuilder();
+        boolean silent = false;
+        int c;
+        while ((c = fromDriver.read()) != -1)
+        {
+          if (c == 0x18)
+          {
+            resetReceived = true;
+            continue;
+          }
+          if (silent)
+          {
+            continue;
+          }
+          line.append((char) c);
+          if (c != '\r')
+          {
+            continue;
+          }
+          pending.add(line.toString());
+          bytesInBuffer += line.length();
+          maxBytesInBuffer = Math.max(maxBytesInBuffer, bytesInBuffer);
+          line.setLength(0);
+          if (fromDriver.available() == 0)
+          {
+            Thread.sleep(1);
+            if (silentAfterError && pending.stream().anyMatch(l -> l.startsWith(errorPrefix)))
+            {
+              // let the driver fill the receive buffer behind the error line
+              Thread.sleep(100);
+            }
+            for (String l : pending)
+            {
+              received.add(l.trim());
+              boolean error = errorPrefix != null && l.startsWith(errorPrefix);
+              toDriver.write((error ? "error:20\r\n" : "[MSG:busy]\r\nok\r\n").getBytes(StandardCharsets.US_ASCII));
+              if (error && silentAfterError)
+              {
+                silent = true;
+                break;
+              }
+            }
+            toDriver.flush();
+            pending.clear();
+            bytesInBuffer = 0;
+          }
+        }
+      }
+      catch (IOException | InterruptedException e)
+      {
+        // driver disconnected
+      }
+    });
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private void connectSimulator(String errorPrefix) throws IOException
+  {
+    connectSimulator(errorPrefix, false);
+  }
+
+  private void connectSimulator(String errorPrefix, boolean silentAfterError) throws IOException
+  {
+    PipedInputStream fromDriver = new PipedInputStream(1 << 16);
+    PipedOutputStream toSimulator = new PipedOutputStream(fromDriver);
+    PipedInputStream fromSimulator = new PipedInputStream(1 << 16);
+    PipedOutputStream toDriver = new PipedOutputStream(fromSimulator);
+    out = new PrintStream(new BufferedOutputStream(toSimulator), false, StandardCharsets.US_ASCII);
+    in = new BufferedReader(new InputStreamReader(fromSimulator, StandardCharsets.US_ASCII));
+    simulate(fromDriver, toDriver, errorPrefix, silentAfterError);
+  }
+
+  private static LaserJob job()
+  {
+    VectorPart vp = new VectorPart(new FloatPowerSpeedFocusProperty(), 500);
+    for (int i = 0; i < 200; i++)
+    {
+      vp.moveto(i, 0);
+      vp.lineto(i, 100);
+    }
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(vp);
+    return job;
+  }
+
+  @Test
+  public void streamsWithinReceiveBuffer() throws Exception
+  {
+    connectSimulator(null);
+    writeJobCode(job(), new ProgressListenerDummy());
+    assertTrue(maxBytesInBuffer <= getRxBufferSize());
+    // more than one line was sent ahead
+    assertTrue(maxBytesInBuffer > 40);
+    assertEquals("G0X0.000000Y0.000000S0", received.get(3));
+    assertTrue(received.size() > 400);
+    disconnect("test");
+  }
+
+  @Test
+  public void reportsErrorsWithLineNumber() throws Exception
+  {
+    connectSimulator("G1X0.050800");
+    try
+    {
+      writeJobCode(job(), new ProgressListenerDummy());
+      fail("error not reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("'error:20' to line "));
+      assertTrue(e.getMessage(), e.getMessage().contains("to line 7: G1X0.050800Y5.080000"));
+    }
+    disconnect("test");
+  }
+
+  @Test(timeout = 20000)
+  public void abortWithLinesInFlightResetsAndDisconnects() throws Exception
+  {
+    connectSimulator("G1X0.050800", true);
+    try
+    {
+      writeJobCode(job(), new ProgressListenerDummy());
+      fail("error not reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("'error:20' to line "));
+    }
+    // the reader is still waiting for the answers of the lines behind the error
+    disconnect("test");
+    for (int i = 0; i < 100 && !resetReceived; i++)
+    {
+      Thread.sleep(50);
+    }
+    assertTrue(resetReceived);
+  }
+}
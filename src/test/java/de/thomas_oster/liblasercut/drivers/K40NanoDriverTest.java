@@ -0,0 +1,64 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.LazyBlackWhiteRaster;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.dithering.FloydSteinberg;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class K40NanoDriverTest
+{
+
+  private static byte[] save(GreyscaleRaster image) throws Exception
+  {
+    K40NanoDriver driver = new K40NanoDriver();
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(new RasterPart(image, driver.getLaserPropertyForRasterPart(), new Point(10, 20), driver.getResolutions().get(0)));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    driver.saveJob(result, job);
+    return result.toByteArray();
+  }
+
+  @Test
+  public void lazyRasterGivesSameOutput() throws Exception
+  {
+    GreyRaster src = new GreyRaster(60, 40);
+    for (int y = 0; y < src.getHeight(); y++)
+    {
+      for (int x = 0; x < src.getWidth(); x++)
+      {
+        src.setGreyScale(x, y, (x * 4 + y * 3) % 256);
+      }
+    }
+    FloydSteinberg alg = new FloydSteinberg();
+    byte[] expected = save(new BlackWhiteRaster(src, alg));
+    assertTrue(expected.length > 100);
+    assertArrayEquals(expected, save(new LazyBlackWhiteRaster(src, alg)));
+  }
+}
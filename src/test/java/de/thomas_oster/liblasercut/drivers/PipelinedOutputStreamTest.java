@@ -0,0 +1,206 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.FloatPowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.ProgressListenerDummy;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedOutputStreamTest
+{
+
+  /**
+   * a port which takes some time for each write
+   */
+  private static class SlowPort extends ByteArrayOutputStream
+  {
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+    {
+      try
+      {
+        Thread.sleep(1);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      super.write(b, off, len);
+    }
+  }
+
+  @Test
+  public void sendsAllBytesInOrder() throws IOException
+  {
+    byte[] data = new byte[300000];
+    new Random(3).nextBytes(data);
+    SlowPort port = new SlowPort();
+    try (OutputStream out = new PipelinedOutputStream(port, 1000, 4))
+    {
+      int i = 0;
+      while (i < data.length)
+      {
+        if (i % 7 == 0)
+        {
+          out.write(data[i++]);
+        }
+        else
+        {
+          int n = Math.min(i % 2500, data.length - i);
+          out.write(data, i, n);
+          i += n;
+        }
+      }
+    }
+    assertArrayEquals(data, port.toByteArray());
+  }
+
+  @Test
+  public void flushStartsSendingWithoutClose() throws Exception
+  {
+    CountDownLatch received = new CountDownLatch(1);
+    OutputStream out = new PipelinedOutputStream(new OutputStream()
+    {
+      @Override
+      public void write(int b)
+      {
+        received.countDown();
+      }
+    });
+    out.write("G21\n".getBytes());
+    out.flush();
+    assertTrue(received.await(5, TimeUnit.SECONDS));
+    out.close();
+  }
+
+  @Test
+  public void reportsErrorsOfThePort() throws IOException
+  {
+    OutputStream out = new PipelinedOutputStream(new OutputStream()
+    {
+      @Override
+      public void write(int b) throws IOException
+      {
+        throw new IOException("port closed");
+      }
+    }, 16, 2);
+    try
+    {
+      // more than fits into the chunks, so a lost error would block here
+      for (int i = 0; i < 100000; i++)
+      {
+        out.write('x');
+      }
+      out.close();
+      fail("error not reported");
+    }
+    catch (IOException e)
+    {
+      assertEquals("Sending failed: port closed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void driverReportsErrorsOfThePort() throws Exception
+  {
+    GenericGcodeDriver driver = new GenericGcodeDriver();
+    driver.setWaitForOKafterEachLine(false);
+    driver.out = new PrintStream(driver.openOutput(new OutputStream()
+    {
+      @Override
+      public void write(int b) throws IOException
+      {
+        throw new IOException("port closed");
+      }
+    }), false, StandardCharsets.US_ASCII);
+    VectorPart vp = new VectorPart(new FloatPowerSpeedFocusProperty(), 500);
+    for (int i = 0; i < 1000; i++)
+    {
+      vp.moveto(i, 0);
+      vp.lineto(i, 100);
+    }
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(vp);
+    try
+    {
+      // like sendJob(): the error is thrown by one of both, depending on when the sender fails
+      driver.writeJobCode(job, new ProgressListenerDummy());
+      driver.disconnect("test");
+      fail("error not reported");
+    }
+    catch (IOException e)
+    {
+      assertEquals("Error while sending to the lasercutter: port closed", e.getMessage());
+    }
+  }
+
+  /**
+   * number of flushes of the output when saving a raster part with the
+   * given number of lines and the given number of vector parts
+   */
+  private static int flushesOfSaveJob(int rasterLines, int vectorParts) throws Exception
+  {
+    GenericGcodeDriver driver = new GenericGcodeDriver();
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(new RasterPart(new GreyRaster(50, rasterLines), new FloatPowerSpeedFocusProperty(), new Point(0, 0), 500));
+    for (int i = 0; i < vectorParts; i++)
+    {
+      VectorPart vp = new VectorPart(new FloatPowerSpeedFocusProperty(), 500);
+      vp.moveto(i, 0);
+      vp.lineto(i, 100);
+      job.addPart(vp);
+    }
+    int[] flushes = new int[1];
+    OutputStream file = new ByteArrayOutputStream()
+    {
+      @Override
+      public void flush()
+      {
+        flushes[0]++;
+      }
+    };
+    driver.saveJob(file, job);
+    return flushes[0];
+  }
+
+  @Test
+  public void driverDoesNotFlushAfterEveryPart() throws Exception
+  {
+    // the same flushes at the start and end, none per part or raster batch
+    assertEquals(flushesOfSaveJob(1, 1), flushesOfSaveJob(200, 20));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsciiBufferTest
+{
+
+  @Test
+  public void fixedPointIsSameAsFormat()
+  {
+    Random r = new Random(4);
+    AsciiBuffer b = new AsciiBuffer();
+    for (int i = 0; i < 200000; i++)
+    {
+      double v;
+      switch (i % 4)
+      {
+        case 0:
+          v = r.nextDouble() * 1000;
+          break;
+        case 1:
+          // many exact ties like 0.0000005
+          v = (r.nextInt(2000000) + 0.5) / Math.pow(10, r.nextInt(9)) * (r.nextBoolean() ? 1 : -1);
+          break;
+        case 2:
+          v = Math.round(r.nextDouble() * 1e7) / 1e7 - 0.5;
+          break;
+        default:
+          v = Double.longBitsToDouble(r.nextLong());
+      }
+      int precision = r.nextInt(10);
+      assertEquals(String.format(Locale.US, "%." + precision + "f", v), b.clear().append(v, precision).toString());
+    }
+    for (double v : new double[]{0.0, -0.0, -1e-9, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.NEGATIVE_INFINITY})
+    {
+      assertEquals(String.format(Locale.US, "%f", v), b.clear().append(v, 6).toString());
+    }
+  }
+
+  @Test
+  public void stripsTrailingZeros()
+  {
+    assertEquals("1.5", new AsciiBuffer().append(1.5, 6, true).toString());
+    assertEquals("2", new AsciiBuffer().append(2.0, 6, true).toString());
+    assertEquals("-2.25", new AsciiBuffer().append(-2.25, 3, true).toString());
+    assertEquals("0", new AsciiBuffer().append(-1e-9, 6, true).toString());
+    assertEquals("0.000001", new AsciiBuffer().append(5e-7, 6, true).toString());
+  }
+
+  @Test
+  public void appendsIntegersAndText()
+  {
+    AsciiBuffer b = new AsciiBuffer(1);
+    b.append("G1 X").append(-42).append(' ').append(Long.MIN_VALUE).append(' ').append(Long.MAX_VALUE).append(" \u00e4");
+    assertEquals("G1 X-42 " + Long.MIN_VALUE + " " + Long.MAX_VALUE + " ?", b.toString());
+    assertEquals(b.toString().length(), b.length());
+  }
+}
@@ -0,0 +1,226 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CachingVectorOptimizerTest
+{
+
+  /**
+   * random short lines, the first changed ones moved by 1 dot
+   */
+  private static VectorPart randomPart(int count, int changed)
+  {
+    Random r = new Random(7);
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 254);
+    for (int i = 0; i < count; i++)
+    {
+      double x = r.nextInt(1000) + (i < changed ? 1 : 0);
+      double y = r.nextInt(1000);
+      vp.moveto(x, y);
+      vp.lineto(x + r.nextInt(5), y + r.nextInt(5));
+    }
+    return vp;
+  }
+
+  private static List<String> commands(VectorPart vp)
+  {
+    List<String> result = new ArrayList<>();
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        result.add(cmd.getType() + " " + cmd.getX() + " " + cmd.getY());
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void unchangedJobKeepsOrder()
+  {
+    CachingVectorOptimizer o = new CachingVectorOptimizer(new NearestVectorOptimizer());
+    List<String> first = commands(o.optimize(randomPart(2000, 0)));
+    assertEquals(-1, o.getLastInserted());
+    assertEquals(first, commands(o.optimize(randomPart(2000, 0))));
+    assertEquals(0, o.getLastInserted());
+    assertEquals(first, commands(new NearestVectorOptimizer().optimize(randomPart(2000, 0))));
+  }
+
+  @Test
+  public void changedPathsAreInserted()
+  {
+    CachingVectorOptimizer o = new CachingVectorOptimizer(new NearestVectorOptimizer());
+    o.optimize(randomPart(2000, 0));
+    List<Element> result = o.sort(o.divide(randomPart(2000, 20)));
+    assertEquals(20, o.getLastInserted());
+    assertEquals(2000, result.size());
+    double cached = new OptimizationReport.Metrics(result).travel;
+    NearestVectorOptimizer nearest = new NearestVectorOptimizer();
+    double full = new OptimizationReport.Metrics(nearest.sort(nearest.divide(randomPart(2000, 20)))).travel;
+    assertTrue(cached < 1.1 * full);
+  }
+
+  @Test
+  public void largeChangesAreOptimizedAgain()
+  {
+    CachingVectorOptimizer o = new CachingVectorOptimizer(new NearestVectorOptimizer());
+    o.optimize(randomPart(2000, 0));
+    o.optimize(randomPart(2000, 1000));
+    assertEquals(-1, o.getLastInserted());
+    o.clear();
+    o.optimize(randomPart(2000, 1000));
+    assertEquals(-1, o.getLastInserted());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInnerOptimizersWhichDeletePaths()
+  {
+    VectorPart vp = randomPart(100, 0);
+    vp.moveto(10, 10);
+    vp.lineto(20, 20);
+    vp.moveto(10, 10);
+    vp.lineto(20, 20);
+    new CachingVectorOptimizer(new DeleteDuplicatePathsOptimizer()).optimize(vp);
+  }
+
+  /**
+   * four vertical lines with property a, four with property b to the right,
+   * and optionally a line with property b between the a lines
+   */
+  private static List<Element> twoGroups(LaserProperty a, LaserProperty b, boolean withNew)
+  {
+    List<Element> result = new ArrayList<>();
+    for (int i = 0; i < 8; i++)
+    {
+      Element e = new Element(i < 4 ? a : b, i < 4 ? i : i + 6, 0);
+      e.addPoint(i < 4 ? i : i + 6, 5);
+      result.add(e);
+    }
+    if (withNew)
+    {
+      Element e = new Element(b, 1.5, 0);
+      e.addPoint(1.5, 5);
+      result.add(e);
+    }
+    return result;
+  }
+
+  private static int switches(List<Element> order)
+  {
+    int result = 0;
+    for (int i = 1; i < order.size(); i++)
+    {
+      if (!order.get(i).prop.equals(order.get(i - 1).prop))
+      {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void insertsWithTheCostModelOfTheInnerOptimizer()
+  {
+    TravelCostModel slowSwitch = new MachineTimeCostModel(100, 100, 1000, 1000, 10, 0);
+    assertSame(slowSwitch, new CachingVectorOptimizer(new OptimizerPipeline(new SimplifyPathsOptimizer())
+      .then(new PartitionedVectorOptimizer(new TwoOptVectorOptimizer(slowSwitch), 100))).getCostModel());
+    assertSame(TravelCostModel.EUCLIDEAN, new CachingVectorOptimizer(new InnerFirstVectorOptimizer()).getCostModel());
+
+    PowerSpeedFocusProperty a = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty b = new PowerSpeedFocusProperty();
+    b.setPower(50);
+    CachingVectorOptimizer euclidean = new CachingVectorOptimizer(new NearestVectorOptimizer());
+    euclidean.sort(twoGroups(a, b, false));
+    // the shortest move puts the new line in front of the a lines
+    assertEquals(2, switches(euclidean.sort(twoGroups(a, b, true))));
+    assertEquals(1, euclidean.getLastInserted());
+
+    CachingVectorOptimizer o = new CachingVectorOptimizer(new NearestVectorOptimizer(slowSwitch));
+    o.sort(twoGroups(a, b, false));
+    assertEquals(1, switches(o.sort(twoGroups(a, b, true))));
+    assertEquals(1, o.getLastInserted());
+  }
+
+  private static Element square(LaserProperty prop, double x, double y, double size)
+  {
+    Element e = new Element(prop, x, y);
+    e.addPoint(x + size, y);
+    e.addPoint(x + size, y + size);
+    e.addPoint(x, y + size);
+    e.addPoint(x, y);
+    return e;
+  }
+
+  /**
+   * a large square and small ones outside of it, optionally a hole in the
+   * large square as the last path
+   */
+  private static List<Element> squares(LaserProperty prop, boolean withHole)
+  {
+    List<Element> result = new ArrayList<>();
+    result.add(square(prop, 0, 0, 100));
+    for (int i = 0; i < 10; i++)
+    {
+      result.add(square(prop, 200 + 20 * i, 0, 10));
+    }
+    if (withHole)
+    {
+      result.add(square(prop, 40, 40, 20));
+    }
+    return result;
+  }
+
+  @Test
+  public void addedHoleIsCutBeforeItsContour()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    VectorOptimizer[] inners = new VectorOptimizer[]{
+      OptimizerPipeline.preset(VectorOptimizer.OrderStrategy.INNER_FIRST),
+      new PartitionedVectorOptimizer(new TwoOptVectorOptimizer(TwoOptVectorOptimizer.DEFAULT_TIME_BUDGET_MILLIS, true), 100)
+    };
+    for (VectorOptimizer inner : inners)
+    {
+      CachingVectorOptimizer o = new CachingVectorOptimizer(inner);
+      o.sort(squares(prop, false));
+      List<Element> in = squares(prop, true);
+      Element outer = in.get(0);
+      Element hole = in.get(in.size() - 1);
+      List<Element> result = o.sort(in);
+      assertEquals(-1, o.getLastInserted());
+      assertTrue(result.indexOf(hole) < result.indexOf(outer));
+      // removing the hole again keeps the cached order
+      o.sort(squares(prop, false));
+      assertEquals(0, o.getLastInserted());
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeleteDuplicatePathsOptimizerTest
+{
+
+  private static void path(VectorPart vp, double... xy)
+  {
+    vp.moveto(xy[0], xy[1]);
+    for (int i = 2; i < xy.length; i += 2)
+    {
+      vp.lineto(xy[i], xy[i + 1]);
+    }
+  }
+
+  private static int countMoves(VectorPart vp)
+  {
+    int result = 0;
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      if (cmd.getType() == VectorCommand.CmdType.MOVETO)
+      {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void removesReversedRotatedAndNearDuplicates()
+  {
+    PowerSpeedFocusProperty cut = new PowerSpeedFocusProperty();
+    // 1 dot = 1 mm
+    VectorPart vp = new VectorPart(cut, 25.4);
+    // square, three times: reversed, and starting at another corner
+    path(vp, 0, 0, 10, 0, 10, 10, 0, 10, 0, 0);
+    path(vp, 0, 0, 0, 10, 10, 10, 10, 0, 0, 0);
+    path(vp, 10, 10, 0, 10, 0, 0, 10, 0, 10, 10);
+    // line, reversed and slightly moved
+    path(vp, 20, 0, 30, 5);
+    path(vp, 30.001, 5, 20, 0.002);
+    // not a duplicate: longer
+    path(vp, 20, 0, 30, 5, 40, 5);
+    assertEquals(3, countMoves(new DeleteDuplicatePathsOptimizer().optimize(vp)));
+  }
+
+  @Test
+  public void keepsPathsWithOtherProperties()
+  {
+    PowerSpeedFocusProperty cut = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty mark = new PowerSpeedFocusProperty();
+    mark.setPower(10);
+    VectorPart vp = new VectorPart(cut, 25.4);
+    path(vp, 0, 0, 10, 0);
+    vp.setProperty(mark);
+    path(vp, 0, 0, 10, 0);
+    path(vp, 10, 0, 0, 0);
+    assertEquals(2, countMoves(new DeleteDuplicatePathsOptimizer().optimize(vp)));
+    assertEquals(2, countMoves(new DeleteDuplicatePathsOptimizer(0).optimize(vp)));
+  }
+
+  @Test
+  public void findsDuplicatesAcrossCellBoundaries()
+  {
+    PowerSpeedFocusProperty cut = new PowerSpeedFocusProperty();
+    VectorPart vp = new VectorPart(cut, 25.4);
+    // 0.0002 mm apart, but on both sides of a multiple of half the tolerance
+    path(vp, 0.0049, 0.0049, 10.0049, 0.0049);
+    path(vp, 0.0051, 0.0051, 10.0051, 0.0051);
+    // and of a multiple of the tolerance
+    path(vp, 20.0099, 0, 30, 0, 30, 10, 20.0099, 0);
+    path(vp, 30.0001, 10, 30.0001, 0, 20.0101, 0, 30.0001, 10);
+    // too far away
+    path(vp, 0.0249, 0.0049, 10.0249, 0.0049);
+    assertEquals(3, countMoves(new DeleteDuplicatePathsOptimizer().optimize(vp)));
+  }
+}
@@ -0,0 +1,98 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeleteOverlappingSegmentsOptimizerTest
+{
+
+  private static Element path(PowerSpeedFocusProperty prop, double... xy)
+  {
+    Element e = new Element(prop, xy[0], xy[1]);
+    for (int i = 2; i < xy.length; i += 2)
+    {
+      e.addPoint(xy[i], xy[i + 1]);
+    }
+    return e;
+  }
+
+  private static double length(List<Element> paths)
+  {
+    double result = 0;
+    for (Element e : paths)
+    {
+      result += e.length();
+    }
+    return result;
+  }
+
+  @Test
+  public void removesSharedEdgeOfAdjacentSquares()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> input = new ArrayList<>();
+    input.add(path(prop, 0, 0, 10, 0, 10, 10, 0, 10, 0, 0));
+    input.add(path(prop, 10, 0, 20, 0, 20, 10, 10, 10, 10, 0));
+    List<Element> result = DeleteOverlappingSegmentsOptimizer.deleteOverlaps(input, 0.01);
+    assertEquals(2, result.size());
+    assertEquals(input.get(0), result.get(0));
+    assertEquals(path(prop, 10, 0, 20, 0, 20, 10, 10, 10), result.get(1));
+  }
+
+  @Test
+  public void splitsPartiallyOverlappingPaths()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty other = new PowerSpeedFocusProperty();
+    other.setPower(10);
+    List<Element> input = new ArrayList<>();
+    input.add(path(prop, 0, 0, 10, 0));
+    input.add(path(prop, -5, 0.001, 15, 0.001, 15, 5));
+    input.add(path(other, 0, 0, 10, 0));
+    List<Element> result = DeleteOverlappingSegmentsOptimizer.deleteOverlaps(input, 0.01);
+    assertEquals(4, result.size());
+    assertEquals(path(prop, -5, 0.001, 0, 0.001), result.get(1));
+    assertEquals(path(prop, 10, 0.001, 15, 0.001, 15, 5), result.get(2));
+    assertEquals(input.get(2), result.get(3));
+  }
+
+  @Test
+  public void tiledSquaresCutEveryEdgeOnce()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> input = new ArrayList<>();
+    int n = 50;
+    for (int x = 0; x < n; x++)
+    {
+      for (int y = 0; y < n; y++)
+      {
+        input.add(path(prop, x, y, x + 1, y, x + 1, y + 1, x, y + 1, x, y));
+      }
+    }
+    List<Element> result = DeleteOverlappingSegmentsOptimizer.deleteOverlaps(input, 0.01);
+    assertEquals(2 * n * (n + 1), length(result), 1e-9);
+  }
+}
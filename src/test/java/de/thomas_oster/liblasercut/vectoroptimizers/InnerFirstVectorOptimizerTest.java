@@ -175,6 +175,34 @@ public class InnerFirstVectorOptimizerTest
     assertEquals(newElem(50, SCALE, 3, 0, 0, 0, 0, 3, 0, 5, 3, 5), sorted.get(8));
   }
 
+  @Test
+  public void sortsShapesWithTheSameBoundingBox()
+  {
+    var elements = new ArrayList<Element>();
+    /*
+      0 1 2 3 4
+    0 *---*---*
+      | /   \ |
+    1 |/     \|
+    2 *   *   *
+      |\  ^  /|
+    3 | \   / |
+    4 *---*---*
+
+     square, diamond inside the square, triangle inside the diamond
+     */
+    elements.add(newElem(50, SCALE, 0, 0, 4, 0, 4, 4, 0, 4, 0, 0));
+    elements.add(newElem(50, SCALE, 2, 0, 4, 2, 2, 4, 0, 2, 2, 0));
+    elements.add(newElem(50, SCALE, 1, 3, 3, 3, 2, 1, 1, 3));
+
+    List<Element> sorted = new InnerFirstVectorOptimizer().sort(elements);
+
+    assertEquals(3, sorted.size());
+    assertEquals(newElem(50, SCALE, 1, 3, 3, 3, 2, 1, 1, 3), sorted.get(0));
+    assertEquals(newElem(50, SCALE, 2, 0, 4, 2, 2, 4, 0, 2, 2, 0), sorted.get(1));
+    assertEquals(newElem(50, SCALE, 0, 0, 4, 0, 4, 4, 0, 4, 0, 0), sorted.get(2));
+  }
+
   /**
    * Construct a new path
    * @param power laser power
@@ -182,9 +210,9 @@ public class InnerFirstVectorOptimizerTest
    */
   private static Element newElem(int power, int scale, int x1, int y1, int... moves)
   {
-    Element ret = new Element();
-
-    ret.start = new Point(scale * x1, scale * y1);
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    prop.setPower(power);
+    Element ret = new Element(prop, scale * x1, scale * y1);
 
     assertEquals(0, moves.length % 2);
     for (int i = 0; i < moves.length; i += 2)
@@ -192,9 +220,6 @@ public class InnerFirstVectorOptimizerTest
       ret.addPoint(new Point(scale * moves[i], scale * moves[i + 1]));
     }
 
-    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
-    prop.setPower(power);
-    ret.prop = prop;
 
     return ret;
   }
@@ -274,16 +299,11 @@ public class InnerFirstVectorOptimizerTest
   private static void drawAnimation(String name, List<Element> sorted)
     throws IOException
   {
-    Rectangle bb = new Rectangle(
-      sorted.get(0).start.x, sorted.get(0).start.y,
-      sorted.get(0).start.x, sorted.get(0).start.y);
+    Rectangle bb = sorted.get(0).boundingBox().clone();
     for (Element polyline : sorted)
     {
-      bb.add(polyline.start);
-      for (Point p : polyline.getMoves())
-      {
-        bb.add(p);
-      }
+      bb.add(new Point(polyline.boundingBox().getXMin(), polyline.boundingBox().getYMin()));
+      bb.add(new Point(polyline.boundingBox().getXMax(), polyline.boundingBox().getYMax()));
     }
     String dimensions = ANTIALIAS * ((int) bb.getXMax() + 2 * BORDER + 1) + "x"
       + ANTIALIAS * ((int) bb.getYMax() + 2 * BORDER + 1);
@@ -305,9 +325,10 @@ public class InnerFirstVectorOptimizerTest
     String compositeCommand = "";
     for (Element polyline : sorted)
     {
-      Point prev = polyline.start;
-      for (Point p : polyline.getMoves())
+      Point prev = polyline.getStart();
+      for (int i = 1; i < polyline.size(); i++)
       {
+        Point p = polyline.getPoint(i);
         Point end;
         for (int f = 1; f <= F; f++)
         {
@@ -0,0 +1,130 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.JobPart;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JobOptimizerTest
+{
+
+  private static VectorPart line(PowerSpeedFocusProperty prop, double dpi, double x, double y)
+  {
+    VectorPart vp = new VectorPart(prop, dpi);
+    vp.moveto(x, y);
+    vp.lineto(x + 10, y);
+    return vp;
+  }
+
+  private static int countLines(JobPart p)
+  {
+    int result = 0;
+    for (VectorCommand cmd : ((VectorPart) p).getCommandList())
+    {
+      if (cmd.getType() == VectorCommand.CmdType.LINETO)
+      {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  private static LaserJob job()
+  {
+    PowerSpeedFocusProperty cut = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty mark = new PowerSpeedFocusProperty();
+    mark.setPower(20);
+    LaserJob job = new LaserJob("test", "test", "test");
+    // far away
+    job.addPart(line(cut, 100, 1000, 1000));
+    job.addPart(new RasterPart(new GreyRaster(10, 10), mark, new Point(0, 0), 100));
+    job.addPart(line(mark, 100, 1000, 1100));
+    job.addPart(line(mark, 200, 10, 10));
+    return job;
+  }
+
+  @Test
+  public void mergesPartsWithSameDpiAndOrdersByTravel()
+  {
+    LaserJob job = job();
+    new JobOptimizer(new NearestVectorOptimizer(), JobOptimizer.SINGLE_LAYER).optimize(job);
+    List<JobPart> parts = job.getParts();
+    assertEquals(3, parts.size());
+    // raster at the origin, then the small line next to it, then the merged lines
+    assertTrue(parts.get(0) instanceof RasterPart);
+    assertEquals(200, parts.get(1).getDPI(), 0);
+    assertEquals(100, parts.get(2).getDPI(), 0);
+    assertEquals(2, countLines(parts.get(2)));
+  }
+
+  @Test
+  public void rasterFirstMergesOnlyVectorParts()
+  {
+    LaserJob job = job();
+    List<JobPart> before = List.copyOf(job.getParts());
+    new JobOptimizer(new NearestVectorOptimizer(), JobOptimizer.RASTER_FIRST).optimize(job);
+    List<JobPart> parts = job.getParts();
+    assertEquals(3, parts.size());
+    assertSame(before.get(1), parts.get(0));
+    // from the end of the raster at the origin to the small line next to it
+    assertEquals(200, parts.get(1).getDPI(), 0);
+    assertEquals(2, countLines(parts.get(2)));
+  }
+
+  @Test
+  public void keepsOrderByDefault()
+  {
+    LaserJob job = job();
+    List<JobPart> before = List.copyOf(job.getParts());
+    new JobOptimizer(new NearestVectorOptimizer()).optimize(job);
+    assertKeptOrder(before, job.getParts());
+  }
+
+  @Test
+  public void keepsOrderIfRequested()
+  {
+    LaserJob job = job();
+    List<JobPart> before = List.copyOf(job.getParts());
+    new JobOptimizer(new NearestVectorOptimizer(), JobOptimizer.keepOrder(job)).optimize(job);
+    assertKeptOrder(before, job.getParts());
+  }
+
+  private static void assertKeptOrder(List<JobPart> before, List<JobPart> parts)
+  {
+    assertEquals(4, parts.size());
+    assertSame(before.get(1), parts.get(1));
+    for (int i : new int[]{0, 2, 3})
+    {
+      assertEquals(before.get(i).getDPI(), parts.get(i).getDPI(), 0);
+      assertEquals(1, countLines(parts.get(i)));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NearestVectorOptimizerTest
+{
+
+  /**
+   * Random paths on a coarse grid, so there are many equal distances,
+   * some closed paths and some single points
+   */
+  static List<Element> randomElements(long seed, int count, int gridSize)
+  {
+    Random r = new Random(seed);
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> result = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+    {
+      Element e = new Element(prop, r.nextInt(gridSize), r.nextInt(gridSize));
+      int moves = r.nextInt(4);
+      for (int m = 0; m < moves; m++)
+      {
+        e.addPoint(new Point(r.nextInt(gridSize), r.nextInt(gridSize)));
+      }
+      if (moves > 1 && r.nextInt(3) == 0)
+      {
+        e.addPoint(e.getStart());
+      }
+      result.add(e);
+    }
+    return result;
+  }
+
+  /**
+   * The original O(n^2) implementation
+   */
+  private static List<Element> referenceSort(List<Element> e)
+  {
+    List<Element> result = new LinkedList<>();
+    result.add(e.remove(0));
+    while (!e.isEmpty())
+    {
+      Point end = result.get(result.size() - 1).getEnd();
+      int next = 0;
+      boolean invert = false;
+      double dst = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < e.size(); i++)
+      {
+        double nd = e.get(i).getStart().hypotTo(end);
+        if (nd < dst)
+        {
+          next = i;
+          dst = nd;
+          invert = false;
+        }
+        if (!e.get(i).getStart().equals(e.get(i).getEnd()))
+        {
+          nd = e.get(i).getEnd().hypotTo(end);
+          if (nd < dst)
+          {
+            next = i;
+            dst = nd;
+            invert = true;
+          }
+        }
+        if (dst == 0)
+        {
+          break;
+        }
+      }
+      Element m = e.remove(next);
+      if (invert)
+      {
+        m.invert();
+      }
+      result.add(m);
+    }
+    return result;
+  }
+
+  @Test
+  public void ordersLikeTheQuadraticSearch()
+  {
+    for (int seed = 0; seed < 20; seed++)
+    {
+      int gridSize = seed % 2 == 0 ? 10 : 1000;
+      List<Element> expected = referenceSort(randomElements(seed, 500, gridSize));
+      List<Element> actual = new NearestVectorOptimizer().sort(randomElements(seed, 500, gridSize));
+      assertEquals(expected, actual);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OptimizerPipelineTest
+{
+
+  private static VectorPart randomPart()
+  {
+    Random r = new Random(3);
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    VectorPart vp = new VectorPart(prop, 254);
+    for (int i = 0; i < 200; i++)
+    {
+      double x = r.nextInt(100);
+      double y = r.nextInt(100);
+      vp.moveto(x, y);
+      for (int k = 1; k <= 10; k++)
+      {
+        // nearly straight line, duplicated now and then
+        vp.lineto(x + k, y + (k % 2) * 0.01);
+      }
+      if (r.nextInt(4) == 0)
+      {
+        vp.moveto(x, y);
+        vp.lineto(x + 10, y);
+      }
+    }
+    return vp;
+  }
+
+  private static List<String> commands(VectorPart vp)
+  {
+    List<String> result = new ArrayList<>();
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      result.add(cmd.getType() == VectorCommand.CmdType.SETPROPERTY
+        ? cmd.getProperty().toString()
+        : cmd.getType() + " " + cmd.getX() + " " + cmd.getY());
+    }
+    return result;
+  }
+
+  @Test
+  public void chainGivesSameResultAsSeparateOptimizers()
+  {
+    VectorPart vp = randomPart();
+    VectorPart separate = new NearestVectorOptimizer().optimize(
+      new SimplifyPathsOptimizer().optimize(
+        new DeleteOverlappingSegmentsOptimizer().optimize(vp)));
+    OptimizerPipeline pipeline = new OptimizerPipeline(new DeleteOverlappingSegmentsOptimizer())
+      .then(new SimplifyPathsOptimizer())
+      .then(new NearestVectorOptimizer());
+    assertEquals(commands(separate), commands(pipeline.optimize(vp)));
+    assertEquals(3, pipeline.getLastTimings().size());
+    assertEquals("SimplifyPathsOptimizer", pipeline.getLastTimings().get(1).getName());
+  }
+
+  private static VectorPart atResolution(VectorPart vp, double dpi)
+  {
+    VectorPart result = new VectorPart(vp.getCurrentCuttingProperty(), dpi);
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      if (cmd.getType() == VectorCommand.CmdType.MOVETO)
+      {
+        result.moveto(cmd.getX(), cmd.getY());
+      }
+      else if (cmd.getType() == VectorCommand.CmdType.LINETO)
+      {
+        result.lineto(cmd.getX(), cmd.getY());
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void sharedPipelineHandlesDifferentResolutionsConcurrently() throws Exception
+  {
+    VectorPart coarse = atResolution(randomPart(), 25.4);
+    VectorPart fine = atResolution(randomPart(), 2540);
+    OptimizerPipeline shared = new OptimizerPipeline(new DeleteOverlappingSegmentsOptimizer(0.5))
+      .then(new TwoOptVectorOptimizer());
+    List<String> expectedCoarse = commands(new OptimizerPipeline(new DeleteOverlappingSegmentsOptimizer(0.5))
+      .then(new TwoOptVectorOptimizer()).optimize(coarse));
+    List<String> expectedFine = commands(new OptimizerPipeline(new DeleteOverlappingSegmentsOptimizer(0.5))
+      .then(new TwoOptVectorOptimizer()).optimize(fine));
+    assertNotEquals(expectedCoarse.size(), expectedFine.size());
+
+    List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    Thread other = new Thread(() ->
+    {
+      for (int i = 0; i < 20; i++)
+      {
+        if (!expectedFine.equals(commands(shared.optimize(fine))))
+        {
+          failures.add("fine run " + i);
+        }
+      }
+    });
+    other.start();
+    for (int i = 0; i < 20; i++)
+    {
+      assertEquals(expectedCoarse, commands(shared.optimize(coarse)));
+      assertEquals(2, shared.getLastTimings().size());
+    }
+    other.join();
+    assertEquals(Collections.emptyList(), failures);
+  }
+
+  @Test
+  public void presetsBehaveLikeTheOptimizers()
+  {
+    VectorPart vp = randomPart();
+    assertTrue(VectorOptimizer.create(VectorOptimizer.OrderStrategy.FILE) instanceof FileVectorOptimizer);
+    assertSame(vp, VectorOptimizer.create(VectorOptimizer.OrderStrategy.FILE).optimize(vp));
+    assertEquals(commands(new DeleteDuplicatePathsOptimizer().optimize(vp)),
+      commands(VectorOptimizer.create(VectorOptimizer.OrderStrategy.DELETE_DUPLICATE_PATHS).optimize(vp)));
+    assertEquals(commands(new InnerFirstVectorOptimizer().optimize(vp)),
+      commands(VectorOptimizer.create(VectorOptimizer.OrderStrategy.INNER_FIRST).optimize(vp)));
+  }
+
+  @Test
+  public void reportsTravelCutLengthAndStages()
+  {
+    PowerSpeedFocusProperty cut = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty mark = new PowerSpeedFocusProperty();
+    mark.setPower(10);
+    VectorPart vp = new VectorPart(cut, 254);
+    vp.moveto(10, 0);
+    vp.lineto(20, 0);
+    vp.moveto(0, 0);
+    vp.lineto(5, 0);
+    vp.setProperty(mark);
+    vp.moveto(0, 10);
+    vp.lineto(0, 20);
+    OptimizationReport report = new OptimizerPipeline(new SimplifyPathsOptimizer(), new NearestVectorOptimizer())
+      .optimizeWithReport(vp);
+    assertEquals(3, report.getPathsBefore());
+    assertEquals(3, report.getPathsAfter());
+    // (0,0) -> (10,0), (20,0) -> (0,0), (5,0) -> (0,10)
+    assertEquals(30 + Math.hypot(5, 10), report.getTravelBefore(), 1e-9);
+    // (0,0) -> (10,0), (20,0) -> (5,0), (0,0) -> (0,10)
+    assertEquals(35, report.getTravelAfter(), 1e-9);
+    assertEquals(25, report.getCutLengthBefore(), 1e-9);
+    assertEquals(25, report.getCutLengthAfter(), 1e-9);
+    assertEquals(1, report.getPropertySwitchesBefore());
+    assertEquals(1, report.getPropertySwitchesAfter());
+    List<String> stages = new ArrayList<>();
+    for (OptimizerPipeline.StageTiming t : report.getStageTimings())
+    {
+      stages.add(t.getName());
+    }
+    assertEquals(List.of("divide", "SimplifyPathsOptimizer", "NearestVectorOptimizer", "build"), stages);
+    assertEquals(commands(new NearestVectorOptimizer().optimize(vp)), commands(report.getResult()));
+  }
+}
@@ -0,0 +1,92 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OptimizerUtilsTest
+{
+
+  private static Element line(PowerSpeedFocusProperty prop, double x1, double y1, double x2, double y2)
+  {
+    Element e = new Element(prop, x1, y1);
+    e.addPoint(x2, y2);
+    return e;
+  }
+
+  @Test
+  public void joinsShuffledChains()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> input = new ArrayList<>();
+    // 10 vertical chains of 1000 segments each, some of them reversed
+    Random r = new Random(1);
+    for (int i = 0; i < 10000; i++)
+    {
+      double x = i / 1000 * 10;
+      double y = i % 1000;
+      input.add(r.nextBoolean() ? line(prop, x, y, x, y + 1) : line(prop, x, y + 1, x, y));
+    }
+    Collections.shuffle(input, r);
+    List<Element> result = OptimizerUtils.joinContiguousLoopElements(input, 0.5);
+    assertEquals(10, result.size());
+    for (Element e : result)
+    {
+      assertEquals(1001, e.size());
+      assertEquals(1000, Math.abs(e.getEnd().y - e.getStart().y), 0);
+    }
+  }
+
+  @Test
+  public void doesNotJoinAtForks()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> input = new ArrayList<>();
+    input.add(line(prop, 0, 0, 10, 0));
+    input.add(line(prop, 10, 0, 20, 0));
+    input.add(line(prop, 10, 0, 10, 10));
+    // joins with the last one, but not at the fork
+    input.add(line(prop, 10.2, 10, 20, 20));
+    assertEquals(3, OptimizerUtils.joinContiguousLoopElements(input, 0.9).size());
+  }
+
+  @Test
+  public void closesLoops()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> input = new ArrayList<>();
+    input.add(line(prop, 0, 0, 10, 0));
+    input.add(line(prop, 10, 10, 0, 10));
+    input.add(line(prop, 10, 0, 10, 10));
+    input.add(line(prop, 0, 0, 0, 10));
+    List<Element> result = OptimizerUtils.joinContiguousLoopElements(input, 0.9);
+    assertEquals(1, result.size());
+    assertTrue(result.get(0).isClosedPath());
+    assertEquals(5, result.get(0).size());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedVectorOptimizerTest
+{
+
+  private static List<Element> randomLines(int count)
+  {
+    Random r = new Random(5);
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> result = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+    {
+      double x = r.nextDouble() * 1000;
+      double y = r.nextDouble() * 500;
+      Element e = new Element(prop, x, y);
+      e.addPoint(x + r.nextDouble() * 4 - 2, y + r.nextDouble() * 4 - 2);
+      result.add(e);
+    }
+    return result;
+  }
+
+  @Test
+  public void ordersEveryPathOnce()
+  {
+    List<Element> input = randomLines(10000);
+    List<Element> result = new PartitionedVectorOptimizer(new NearestVectorOptimizer(), 300).sort(new ArrayList<>(input));
+    assertEquals(input.size(), result.size());
+    Map<Element, Boolean> seen = new IdentityHashMap<>();
+    for (Element e : result)
+    {
+      assertTrue(seen.put(e, true) == null);
+    }
+    for (Element e : input)
+    {
+      assertTrue(seen.containsKey(e));
+    }
+  }
+
+  @Test
+  public void travelIsCloseToGlobalNearest()
+  {
+    double global = new OptimizationReport.Metrics(new NearestVectorOptimizer().sort(randomLines(20000))).travel;
+    double partitioned = new OptimizationReport.Metrics(
+      new PartitionedVectorOptimizer(new NearestVectorOptimizer(), 500).sort(randomLines(20000))).travel;
+    double unsorted = new OptimizationReport.Metrics(randomLines(20000)).travel;
+    assertTrue(partitioned < 1.25 * global);
+    assertTrue(partitioned < unsorted / 10);
+  }
+
+  @Test
+  public void smallJobsAreNotPartitioned()
+  {
+    List<Element> lines = randomLines(100);
+    assertEquals(new NearestVectorOptimizer().sort(randomLines(100)),
+      new PartitionedVectorOptimizer().sort(lines));
+    assertEquals(Collections.emptyList(), new PartitionedVectorOptimizer().sort(new ArrayList<>()));
+  }
+}
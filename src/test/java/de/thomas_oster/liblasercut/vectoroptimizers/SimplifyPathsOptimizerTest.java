@@ -0,0 +1,97 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimplifyPathsOptimizerTest
+{
+
+  private static double distanceToPolyline(Element path, double x, double y)
+  {
+    double result = Double.POSITIVE_INFINITY;
+    for (int i = 1; i < path.size(); i++)
+    {
+      double ax = path.getX(i - 1);
+      double ay = path.getY(i - 1);
+      double dx = path.getX(i) - ax;
+      double dy = path.getY(i) - ay;
+      double t = Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / (dx * dx + dy * dy)));
+      result = Math.min(result, Math.hypot(ax + t * dx - x, ay + t * dy - y));
+    }
+    return result;
+  }
+
+  @Test
+  public void simplifiesFinelySampledCircle()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    Element circle = new Element(prop, 1000, 0);
+    for (int i = 1; i <= 2000; i++)
+    {
+      double a = 2 * Math.PI * i / 2000;
+      circle.addPoint(i == 2000 ? 1000 : 1000 * Math.cos(a), i == 2000 ? 0 : 1000 * Math.sin(a));
+    }
+    Element simplified = SimplifyPathsOptimizer.simplify(circle, 0.5);
+    assertTrue(simplified.size() < 200);
+    assertTrue(simplified.isClosedPath());
+    for (int i = 0; i < circle.size(); i++)
+    {
+      assertTrue(distanceToPolyline(simplified, circle.getX(i), circle.getY(i)) <= 0.5);
+    }
+  }
+
+  @Test
+  public void mergesCollinearSegmentsAndKeepsOrder()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    VectorPart vp = new VectorPart(prop, 500);
+    vp.moveto(0, 0);
+    for (int i = 1; i <= 100; i++)
+    {
+      vp.lineto(i, 0);
+    }
+    vp.lineto(100, 50);
+    // tiny square: nothing to remove
+    vp.moveto(0, 10);
+    vp.lineto(0.2, 10);
+    vp.lineto(0.2, 10.2);
+    vp.lineto(0, 10);
+    List<Double> coordinates = new ArrayList<>();
+    for (VectorCommand cmd : new SimplifyPathsOptimizer().optimize(vp).getCommandList())
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        coordinates.add(cmd.getX());
+        coordinates.add(cmd.getY());
+      }
+    }
+    assertEquals(List.of(0.0, 0.0, 100.0, 0.0, 100.0, 50.0,
+      0.0, 10.0, 0.2, 10.0, 0.2, 10.2, 0.0, 10.0), coordinates);
+  }
+}
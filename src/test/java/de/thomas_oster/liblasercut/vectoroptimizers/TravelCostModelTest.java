@@ -0,0 +1,160 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.FloatPowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.drivers.GenericGcodeDriver;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TravelCostModelTest
+{
+
+  private static PowerSpeedFocusProperty property(int power, float focus)
+  {
+    PowerSpeedFocusProperty p = new PowerSpeedFocusProperty();
+    p.setPower(power);
+    p.setFocus(focus);
+    return p;
+  }
+
+  /**
+   * short vertical lines next to each other, alternating between two properties
+   */
+  private static List<Element> alternatingLines(LaserProperty a, LaserProperty b)
+  {
+    List<Element> result = new ArrayList<>();
+    for (int i = 0; i < 20; i++)
+    {
+      Element e = new Element(i % 2 == 0 ? a : b, i, 0);
+      e.addPoint(i, 5);
+      result.add(e);
+    }
+    return result;
+  }
+
+  private static int switches(List<Element> order)
+  {
+    int result = 0;
+    for (int i = 1; i < order.size(); i++)
+    {
+      if (!order.get(i).prop.equals(order.get(i - 1).prop))
+      {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void machineTimeGrowsWithDistance()
+  {
+    MachineTimeCostModel m = new MachineTimeCostModel(100, 50, 1000, 500, 0, 0);
+    Random r = new Random(1);
+    double last = 0;
+    for (double d = 0; d < 200; d += 0.5)
+    {
+      double t = m.moveCost(d, 0);
+      assertTrue(t >= last);
+      last = t;
+      double angle = r.nextDouble() * 2 * Math.PI;
+      assertTrue(m.minMoveCost(d) <= m.moveCost(d * Math.cos(angle), d * Math.sin(angle)) + 1e-12);
+    }
+    // the slower y axis determines the time
+    assertEquals(m.moveCost(0, 100), m.moveCost(100, 100), 1e-12);
+    // long move: 100mm at 100mm/s plus 0.1s for accelerating and braking
+    assertEquals(1.1, m.moveCost(100, 0), 1e-12);
+    // short move: does not reach full speed
+    assertEquals(2 * Math.sqrt(0.001), m.moveCost(1, 0), 1e-12);
+  }
+
+  @Test
+  public void switchCostCountsFocusChanges()
+  {
+    MachineTimeCostModel m = new MachineTimeCostModel(100, 100, 0, 0, 2, 3);
+    assertEquals(0, m.switchCost(property(10, 0), property(10, 0)), 0);
+    assertEquals(2, m.switchCost(property(10, 0), property(20, 0)), 0);
+    assertEquals(5, m.switchCost(property(10, 0), property(10, 1)), 0);
+  }
+
+  @Test
+  public void nearestAvoidsPropertySwitches()
+  {
+    LaserProperty a = property(10, 0);
+    LaserProperty b = property(20, 0);
+    assertEquals(19, switches(new NearestVectorOptimizer().sort(alternatingLines(a, b))));
+    TravelCostModel slowSwitch = new MachineTimeCostModel(100, 100, 1000, 1000, 10, 0);
+    assertEquals(1, switches(new NearestVectorOptimizer(slowSwitch).sort(alternatingLines(a, b))));
+    assertEquals(1, switches(new TwoOptVectorOptimizer(slowSwitch).sort(alternatingLines(a, b))));
+  }
+
+  @Test
+  public void euclideanPresetIsUnchanged()
+  {
+    List<Element> plain = new NearestVectorOptimizer().sort(alternatingLines(property(10, 0), property(20, 0)));
+    List<Element> explicit = new NearestVectorOptimizer(TravelCostModel.EUCLIDEAN).sort(alternatingLines(property(10, 0), property(20, 0)));
+    assertEquals(plain, explicit);
+  }
+
+  @Test
+  public void presetUsesTheCostModelOfTheCutter()
+  {
+    GenericGcodeDriver cutter = new GenericGcodeDriver();
+    cutter.setTravel_speed(0);
+    assertSame(TravelCostModel.EUCLIDEAN, cutter.getTravelCostModel());
+    cutter.setTravel_speed(3600);
+    FloatPowerSpeedFocusProperty a = new FloatPowerSpeedFocusProperty();
+    FloatPowerSpeedFocusProperty b = new FloatPowerSpeedFocusProperty();
+    b.setFocus(2);
+    VectorPart vp = new VectorPart(a, 25.4);
+    for (int i = 0; i < 20; i++)
+    {
+      vp.setProperty(i % 2 == 0 ? a : b);
+      vp.moveto(i, 0);
+      vp.lineto(i, 5);
+    }
+    // focus changes take a second, the moves between the lines a few ms
+    assertEquals(20, propertyChanges(VectorOptimizer.create(VectorOptimizer.OrderStrategy.NEAREST).optimize(vp)));
+    assertEquals(2, propertyChanges(VectorOptimizer.create(VectorOptimizer.OrderStrategy.NEAREST, cutter).optimize(vp)));
+  }
+
+  private static int propertyChanges(VectorPart vp)
+  {
+    int result = 0;
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      if (cmd.getType() == VectorCommand.CmdType.SETPROPERTY)
+      {
+        result++;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TwoOptVectorOptimizerTest
+{
+
+  static double travel(List<Element> order)
+  {
+    double result = 0;
+    for (int i = 1; i < order.size(); i++)
+    {
+      result += order.get(i - 1).getEnd().hypotTo(order.get(i).getStart());
+    }
+    return result;
+  }
+
+  private static Element square(double x, double y, double size, PowerSpeedFocusProperty prop)
+  {
+    Element e = new Element(prop, x, y);
+    e.addPoint(new Point(x + size, y));
+    e.addPoint(new Point(x + size, y + size));
+    e.addPoint(new Point(x, y + size));
+    e.addPoint(new Point(x, y));
+    return e;
+  }
+
+  @Test
+  public void improvesNearestNeighbourOrder()
+  {
+    for (int seed = 0; seed < 3; seed++)
+    {
+      double nearest = travel(new NearestVectorOptimizer().sort(NearestVectorOptimizerTest.randomElements(seed, 2000, 10000)));
+      List<Element> input = NearestVectorOptimizerTest.randomElements(seed, 2000, 10000);
+      List<Element> sorted = new TwoOptVectorOptimizer(60000, false).sort(new ArrayList<>(input));
+      assertEquals(input.size(), sorted.size());
+      Map<Element, Boolean> seen = new IdentityHashMap<>();
+      for (Element e : sorted)
+      {
+        seen.put(e, true);
+      }
+      for (Element e : input)
+      {
+        assertTrue(seen.containsKey(e));
+      }
+      assertTrue(travel(sorted) < nearest);
+    }
+  }
+
+  @Test
+  public void keepsInnerPathsFirst()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    Random r = new Random(42);
+    List<Element> input = new ArrayList<>();
+    for (int i = 0; i < 300; i++)
+    {
+      double x = r.nextInt(10000);
+      double y = r.nextInt(10000);
+      input.add(square(x, y, 100, prop));
+      input.add(square(x + 20, y + 20, 60, prop));
+      input.add(square(x + 40, y + 40, 20, prop));
+    }
+    Collections.shuffle(input, r);
+    List<Element> sorted = new TwoOptVectorOptimizer(60000, true).sort(new ArrayList<>(input));
+    ContainmentTree tree = new ContainmentTree(sorted);
+    for (int i = 0; i < sorted.size(); i++)
+    {
+      for (int c : tree.getContainers(i))
+      {
+        assertTrue(c > i);
+      }
+    }
+  }
+}
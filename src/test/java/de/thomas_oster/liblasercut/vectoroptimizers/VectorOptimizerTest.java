@@ -0,0 +1,93 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VectorOptimizerTest
+{
+
+  private static double[] coordinates(VectorPart vp)
+  {
+    VectorCommand[] commands = vp.getCommandList();
+    double[] result = new double[2 * commands.length];
+    int i = 0;
+    for (VectorCommand cmd : commands)
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        result[i++] = cmd.getX();
+        result[i++] = cmd.getY();
+      }
+    }
+    return Arrays.copyOf(result, i);
+  }
+
+  @Test
+  public void invertAndAppend()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    Element a = new Element(prop, 0, 0);
+    a.addPoint(1, 0);
+    a.addPoint(2, 0);
+    double length = a.length();
+    a.invert();
+    assertEquals(3, a.size());
+    assertEquals(2, a.getStart().x, 0);
+    assertEquals(0, a.getEnd().x, 0);
+    assertEquals(length, a.length(), 0);
+    Element b = new Element(prop, 0, 0);
+    b.addPoint(0, 5);
+    b.invert();
+    b.invert();
+    a.append(b);
+    Element expected = new Element(prop, 2, 0);
+    expected.addPoint(1, 0);
+    expected.addPoint(0, 0);
+    expected.addPoint(0, 5);
+    assertEquals(expected, a);
+    assertEquals(7, a.length(), 0);
+    assertEquals(5, a.boundingBox().getYMax(), 0);
+  }
+
+  @Test
+  public void roundTripThroughVectorPart()
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    VectorPart vp = new VectorPart(prop, 500);
+    vp.moveto(0, 0);
+    vp.lineto(10, 0);
+    vp.lineto(10, 10);
+    vp.lineto(0, 0);
+    vp.moveto(20, 20);
+    vp.lineto(30, 20);
+    VectorPart result = new FileVectorOptimizer().optimize(vp);
+    assertArrayEquals(coordinates(vp), coordinates(result), 0);
+    assertTrue(new FileVectorOptimizer().divide(vp).get(0).isClosedPath());
+  }
+}